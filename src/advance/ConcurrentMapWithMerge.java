@@ -1,8 +1,16 @@
 package advance;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
 
 /**
  * 6. Concurrent Map with a Complex Merge Function
@@ -28,59 +36,353 @@ public class ConcurrentMapWithMerge {
      */
     public record Update(String key, String value, Operation op) {}
 
+    /**
+     * An update with its position in the history of updates: a higher sequence happened later.
+     * Sequences must be unique, e.g. the index of the update in its list, or a counter at ingest.
+     */
+    public record SequencedUpdate(long sequence, Update update) {}
+
     /**
      * Processes a list of updates and returns a concurrent map with the final state of each key.
-     * The method uses a clever encoding scheme to maintain operation information:
-     * - Each value in the map is stored as "OPERATION value"
-     * - This allows the merge function to know the operation type for subsequent merges
-     * - The final map will contain only the values, with operation information removed
+     * Each key's updates are recorded in a typed {@link KeyLog} (last SET value plus the appended values),
+     * and the final String of a key is built only once, when the collector finishes.
      *
      * @param updates List of updates to process
      * @return ConcurrentMap containing the final state of each key
      */
     public static ConcurrentMap<String, String> processUpdates(List<Update> updates) {
-        return updates.stream().collect(Collectors.toConcurrentMap(
-                // Key mapper: Use the key from the Update object
-                Update::key,
-                // Value mapper: Encode operation with value for initial insertion
-                // Format: "OPERATION value" (e.g., "SET val1" or "APPEND val2")
-                d -> String.join(" ", d.op.toString(), d.value),
-                // Merge function: Handles both cases:
-                // 1. When first value is a plain value (from previous merge)
-                // 2. When first value contains operation info (from initial insert)
-                (value1, value2) -> {
-                    // Parse the new value's operation and actual value
-                    String[] parts2 = value2.split(" ");
-                    String operation = parts2[0];
-                    String newValue = parts2[1];
-
-                    // Check if value1 contains operation info (has a space)
-                    if (value1.contains(" ")) {
-                        // value1 has operation info, check new operation
-                        if (Operation.SET.toString().equals(operation)) {
-                            // For SET, return new value with operation
-                            // This ensures subsequent merges know it was a SET
-                            return String.join(" ", operation, newValue);
-                        } else {
-                            // For APPEND, concatenate values and keep APPEND operation
-                            // This maintains the APPEND operation for future merges
-                            String[] parts1 = value1.split(" ");
-                            return String.join(" ", Operation.APPEND.toString(), 
-                                    parts1[1] + "," + newValue);
-                        }
-                    } else {
-                        // value1 is a plain value, check new operation
-                        if (Operation.SET.toString().equals(operation)) {
-                            // For SET, return new value with operation
-                            return String.join(" ", operation, newValue);
-                        } else {
-                            // For APPEND, concatenate values and keep APPEND operation
-                            return String.join(" ", Operation.APPEND.toString(), 
-                                    value1 + "," + newValue);
-                        }
+        return updates.stream().collect(toUpdatedMap());
+    }
+
+    /**
+     * Collector applying SET / APPEND updates per key.
+     * <a/>
+     * Encoding every value as a String "OPERATION value" and splitting, re-joining and copying those Strings on
+     * every merge copies O(n^2) chars for a chain of n APPENDs, and breaks on values containing spaces.
+     * Instead the updates of a key are kept typed, and joined once:
+     * - Supplier: a map from key to its KeyLog
+     * - Accumulator: SET replaces the key's log content, APPEND adds the value to the log's chunked buffer (no copy)
+     * - Combiner: a later log that contains a SET replaces the earlier one, otherwise its appends are linked after
+     *   the earlier ones in O(1)
+     * - Finisher: one StringBuilder of the exact final size per key
+     * <a/>
+     * The collector is not CONCURRENT: each parallel partial result has its own map and partial results are
+     * combined in encounter order, so APPEND order is the order of the updates, sequential or parallel.
+     */
+    public static Collector<Update, ?, ConcurrentMap<String, String>> toUpdatedMap() {
+        return Collector.<Update, Map<String, KeyLog>, ConcurrentMap<String, String>>of(
+                // Supplier: key -> log of its updates
+                HashMap::new,
+                // Accumulator: record the update in the key's log
+                (logs, update) -> logs.computeIfAbsent(update.key(), key -> new KeyLog()).apply(update.op(), update.value()),
+                // Combiner: the right logs happened after the left logs
+                (left, right) -> {
+                    right.forEach((key, log) -> left.merge(key, log, KeyLog::then));
+                    return left;
+                },
+                // Finisher: build each key's String once
+                logs -> {
+                    ConcurrentMap<String, String> result = new ConcurrentHashMap<>(Math.max(16, logs.size() * 4 / 3 + 1));
+                    logs.forEach((key, log) -> result.put(key, log.materialize()));
+                    return result;
+                }
+        );
+    }
+
+    /**
+     * The updates of one key: the value of the last SET, and the values appended after it in order.
+     * Appended values are kept as references in chunks that double in size, so appending never copies chars
+     * and two logs are concatenated by linking their chunks.
+     */
+    public static final class KeyLog {
+        private static final int FIRST_CHUNK_SIZE = 4;
+        private static final int MAX_CHUNK_SIZE = 1024;
+
+        private String base;            // value of the last SET, null if there was none
+        private Chunk head;             // values appended after the SET (or from the start), in order
+        private Chunk tail;
+        private int appendedCount;
+        private long appendedLength;
+
+        private static final class Chunk {
+            final String[] values;
+            int size;
+            Chunk next;
+
+            Chunk(int capacity) {
+                values = new String[capacity];
+            }
+        }
+
+        KeyLog apply(Operation op, String value) {
+            if (op == Operation.SET) {
+                base = value;
+                head = tail = null;
+                appendedCount = 0;
+                appendedLength = 0;
+            } else {
+                append(value);
+            }
+            return this;
+        }
+
+        private void append(String value) {
+            if (tail == null || tail.size == tail.values.length) {
+                Chunk chunk = new Chunk(tail == null ? FIRST_CHUNK_SIZE : Math.min(tail.values.length * 2, MAX_CHUNK_SIZE));
+                if (tail == null) {
+                    head = chunk;
+                } else {
+                    tail.next = chunk;
+                }
+                tail = chunk;
+            }
+            tail.values[tail.size++] = value;
+            appendedCount++;
+            appendedLength += value.length();
+        }
+
+        /**
+         * Concatenates the log of later updates after this one. The later log must not be used afterwards,
+         * since its chunks now belong to this log.
+         *
+         * @return The combined log: the later one if it contains a SET, otherwise this one
+         */
+        KeyLog then(KeyLog later) {
+            if (later.base != null) {
+                return later;  // its SET overwrote everything before it
+            }
+            if (later.head != null) {
+                if (head == null) {
+                    head = later.head;
+                } else {
+                    tail.next = later.head;
+                }
+                // A fresh chunk for any later append, so the linked (possibly not full) chunk is never written again
+                tail = new Chunk(FIRST_CHUNK_SIZE);
+                later.tail.next = tail;
+                appendedCount += later.appendedCount;
+                appendedLength += later.appendedLength;
+            }
+            return this;
+        }
+
+        /**
+         * @return The final value: the last SET value followed by the appended values, separated by commas
+         */
+        String materialize() {
+            int separators = appendedCount - (base == null ? 1 : 0);
+            StringBuilder value = new StringBuilder(Math.toIntExact(
+                    (base == null ? 0 : base.length()) + appendedLength + Math.max(0, separators)));
+            boolean first = true;
+            if (base != null) {
+                value.append(base);
+                first = false;
+            }
+            for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+                for (int i = 0; i < chunk.size; i++) {
+                    if (!first) {
+                        value.append(',');
                     }
+                    value.append(chunk.values[i]);
+                    first = false;
                 }
-        ));
+            }
+            return value.toString();
+        }
+    }
+
+    /**
+     * Processes the updates on all cores. Each update is numbered by its index in the list, so the result is
+     * the same as {@link #processUpdates(List)} however the parallel stream splits and combines the work.
+     */
+    public static ConcurrentMap<String, String> processUpdatesParallel(List<Update> updates) {
+        return IntStream.range(0, updates.size()).parallel()
+                .mapToObj(i -> new SequencedUpdate(i, updates.get(i)))
+                .collect(toSequencedMap());
+    }
+
+    /**
+     * Collector applying sequence-numbered updates per key: the last SET (by sequence) wins, followed by the
+     * APPENDs with a higher sequence, in sequence order.
+     * <a/>
+     * The order in which updates reach the collector does not matter, only their sequence does:
+     * - Supplier: a map from key to its SequencedLog
+     * - Accumulator: put the update in its place in the key's log
+     * - Combiner: merge two logs; associative and commutative, so partial results can be combined in any order
+     * - Finisher: join each key's values once
+     * That is why the collector is UNORDERED: the stream may split an unordered source, or combine partial
+     * results, however it likes, and the result is still the one of applying the updates in sequence order.
+     */
+    public static Collector<SequencedUpdate, ?, ConcurrentMap<String, String>> toSequencedMap() {
+        return Collector.<SequencedUpdate, Map<String, SequencedLog>, ConcurrentMap<String, String>>of(
+                // Supplier: key -> updates of the key, by sequence
+                HashMap::new,
+                // Accumulator: record the update at its sequence
+                (logs, sequenced) -> {
+                    Update update = sequenced.update();
+                    logs.computeIfAbsent(update.key(), key -> new SequencedLog())
+                            .apply(sequenced.sequence(), update.op(), update.value());
+                },
+                // Combiner: merge the logs of the keys in both partial results
+                (left, right) -> {
+                    right.forEach((key, log) -> left.merge(key, log, SequencedLog::merge));
+                    return left;
+                },
+                // Finisher: build each key's String once
+                logs -> {
+                    ConcurrentMap<String, String> result = new ConcurrentHashMap<>(Math.max(16, logs.size() * 4 / 3 + 1));
+                    logs.forEach((key, log) -> result.put(key, log.materialize()));
+                    return result;
+                },
+                Collector.Characteristics.UNORDERED
+        );
+    }
+
+    /**
+     * The updates of one key that still matter: the SET with the highest sequence, and the APPENDs with a higher
+     * sequence than it, sorted by sequence. Anything older than the last SET is dropped as soon as it is known.
+     * <a/>
+     * Merging two logs keeps the later SET and merges the two sorted APPEND runs, dropping the ones before it.
+     * The result only depends on the set of updates seen, not on how they were grouped, so merge is associative
+     * and commutative. Updates that arrive in sequence order (the usual case) are appended in O(1).
+     */
+    public static final class SequencedLog {
+        private long setSequence = Long.MIN_VALUE;  // MIN_VALUE: no SET seen
+        private String setValue;
+        private long[] sequences = new long[4];     // sequences of the APPENDs, increasing, all > setSequence
+        private String[] values = new String[4];
+        private int size;
+
+        SequencedLog apply(long sequence, Operation op, String value) {
+            if (op == Operation.SET) {
+                if (sequence > setSequence) {
+                    setSequence = sequence;
+                    setValue = value;
+                    dropAppendsBefore(sequence);
+                }
+            } else if (sequence > setSequence) {
+                insert(sequence, value);
+            }
+            return this;
+        }
+
+        /**
+         * @return A log of the updates of both logs; this one, updated
+         */
+        SequencedLog merge(SequencedLog other) {
+            if (other.setSequence > setSequence) {
+                setSequence = other.setSequence;
+                setValue = other.setValue;
+                dropAppendsBefore(setSequence);
+            }
+            int from = firstAfter(other.sequences, other.size, setSequence);
+            int otherSize = other.size - from;
+            if (otherSize == 0) {
+                return this;
+            }
+            if (size == 0 || sequences[size - 1] < other.sequences[from]) {
+                // Other's appends all come after ours: concatenate
+                ensureCapacity(size + otherSize);
+                System.arraycopy(other.sequences, from, sequences, size, otherSize);
+                System.arraycopy(other.values, from, values, size, otherSize);
+                size += otherSize;
+                return this;
+            }
+            // Interleaved runs: merge them into new arrays
+            long[] mergedSequences = new long[size + otherSize];
+            String[] mergedValues = new String[size + otherSize];
+            int i = 0, j = from, k = 0;
+            while (i < size && j < other.size) {
+                if (sequences[i] < other.sequences[j]) {
+                    mergedSequences[k] = sequences[i];
+                    mergedValues[k++] = values[i++];
+                } else {
+                    mergedSequences[k] = other.sequences[j];
+                    mergedValues[k++] = other.values[j++];
+                }
+            }
+            for (; i < size; i++, k++) {
+                mergedSequences[k] = sequences[i];
+                mergedValues[k] = values[i];
+            }
+            for (; j < other.size; j++, k++) {
+                mergedSequences[k] = other.sequences[j];
+                mergedValues[k] = other.values[j];
+            }
+            sequences = mergedSequences;
+            values = mergedValues;
+            size = k;
+            return this;
+        }
+
+        /**
+         * @return The last SET value followed by the later appended values, separated by commas
+         */
+        String materialize() {
+            long length = (setValue == null ? 0 : setValue.length()) + Math.max(0, size - (setValue == null ? 1 : 0));
+            for (int i = 0; i < size; i++) {
+                length += values[i].length();
+            }
+            StringBuilder value = new StringBuilder(Math.toIntExact(length));
+            if (setValue != null) {
+                value.append(setValue);
+            }
+            for (int i = 0; i < size; i++) {
+                if (i > 0 || setValue != null) {
+                    value.append(',');
+                }
+                value.append(values[i]);
+            }
+            return value.toString();
+        }
+
+        private void insert(long sequence, String value) {
+            ensureCapacity(size + 1);
+            int position = size;
+            if (size > 0 && sequences[size - 1] > sequence) {
+                // Out of order: find its place among the sorted appends
+                position = firstAfter(sequences, size, sequence);
+                System.arraycopy(sequences, position, sequences, position + 1, size - position);
+                System.arraycopy(values, position, values, position + 1, size - position);
+            }
+            sequences[position] = sequence;
+            values[position] = value;
+            size++;
+        }
+
+        private void dropAppendsBefore(long sequence) {
+            int from = firstAfter(sequences, size, sequence);
+            if (from > 0) {
+                System.arraycopy(sequences, from, sequences, 0, size - from);
+                System.arraycopy(values, from, values, 0, size - from);
+                Arrays.fill(values, size - from, size, null);
+                size -= from;
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > sequences.length) {
+                int newCapacity = Math.max(capacity, sequences.length * 2);
+                sequences = Arrays.copyOf(sequences, newCapacity);
+                values = Arrays.copyOf(values, newCapacity);
+            }
+        }
+
+        /**
+         * @return Index of the first of the sorted sequences[0, size) that is greater than the sequence
+         */
+        private static int firstAfter(long[] sequences, int size, long sequence) {
+            int low = 0, high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sequences[middle] <= sequence) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
     }
 
     public static void main(String[] args) {
@@ -101,6 +403,37 @@ public class ConcurrentMapWithMerge {
         assert result.get("A").equals("val1,val2,val3");
         assert result.get("B").equals("valB2");
         assert result.get("C").equals("valC1");
+
+        // Values with spaces and commas are kept as they are
+        ConcurrentMap<String, String> spaced = processUpdates(List.of(
+                new Update("D", "hello world", Operation.APPEND),
+                new Update("D", "a, b", Operation.APPEND),
+                new Update("E", "x", Operation.APPEND),
+                new Update("E", "new start", Operation.SET),
+                new Update("E", "y", Operation.APPEND)));
+        assert spaced.get("D").equals("hello world,a, b");
+        assert spaced.get("E").equals("new start,y");
+
+        // A long APPEND chain on a few keys, sequential and parallel, in update order
+        List<Update> many = new ArrayList<>();
+        for (int i = 0; i < 300_000; i++) {
+            many.add(new Update("K" + (i % 3), "v" + i, i % 10_000 == 0 ? Operation.SET : Operation.APPEND));
+        }
+        ConcurrentMap<String, String> sequential = processUpdates(many);
+        assert many.parallelStream().collect(toUpdatedMap()).equals(sequential);
+        assert sequential.get("K2").startsWith("v290000,v290003,");  // i = 290000 is the last SET of K2
+        assert sequential.get("K1").endsWith(",v299998");
+
+        // Sequence-numbered updates: the same result in parallel, and whatever order the updates arrive in
+        assert processUpdatesParallel(updates).equals(result);
+        assert processUpdatesParallel(many).equals(sequential);
+        List<SequencedUpdate> shuffled = new ArrayList<>();
+        for (int i = 0; i < many.size(); i++) {
+            shuffled.add(new SequencedUpdate(i, many.get(i)));
+        }
+        Collections.shuffle(shuffled, new Random(42));
+        assert shuffled.parallelStream().unordered().collect(toSequencedMap()).equals(sequential);
+        assert shuffled.stream().collect(toSequencedMap()).equals(sequential);
         System.out.println("\nTest Passed! ✅");
     }
 }
@@ -0,0 +1,116 @@
+package advance;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+
+/**
+ * Thread-safe, lock-free version of {@link Stats} for many producer threads feeding one live aggregate.
+ * <a/>
+ * Each statistic is a striped JDK cell: {@link LongAdder} for the count, {@link DoubleAdder} for the sum,
+ * and {@link DoubleAccumulator} with Math::min / Math::max for the extremes. Under contention each
+ * thread updates its own cell, so updates never block and rarely retry; cells are only summed when
+ * the statistics are read.
+ * <a/>
+ * Reads are not atomic across the four statistics: a {@link #snapshot()} taken while other threads
+ * are still adding may include a value in the count but not yet in the sum. Once the producers are
+ * done (e.g. when a stream's collect returns) the snapshot is exact.
+ */
+public class ConcurrentStats {
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+    private final DoubleAccumulator min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+    private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+    /**
+     * Adds a value. Safe to call from any number of threads at once.
+     */
+    public void accept(double value) {
+        count.increment();
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Adds the other aggregate's totals into this one.
+     * Not needed for the concurrent collector, which shares one instance; kept so the class
+     * can also be used as a regular (non-concurrent) container.
+     */
+    public ConcurrentStats combine(ConcurrentStats other) {
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        min.accumulate(other.min.get());
+        max.accumulate(other.max.get());
+        return this;
+    }
+
+    /**
+     * Reads the current totals into a plain {@link Stats}. An empty aggregate gives the same
+     * result as {@code new Stats()}.
+     */
+    public Stats snapshot() {
+        long n = count.sum();
+        return n == 0 ? new Stats() : new Stats(n, sum.sum(), min.get(), max.get());
+    }
+
+    /**
+     * Creates a concurrent collector: a parallel stream (or any number of threads using the
+     * collector's accumulator) adds into one shared ConcurrentStats, with no per-thread containers
+     * and no combine step.
+     *
+     * @param <T> The type of elements in the stream
+     * @param mapper Function to convert elements to double values for statistics
+     * @return A CONCURRENT and UNORDERED collector that produces a Stats snapshot
+     */
+    public static <T> Collector<T, ConcurrentStats, Stats> toConcurrentStats(ToDoubleFunction<T> mapper) {
+        return Collector.of(
+                ConcurrentStats::new,                                          // Supplier: one shared aggregate
+                (stats, element) -> stats.accept(mapper.applyAsDouble(element)), // Accumulator: lock-free update
+                ConcurrentStats::combine,                                      // Combiner: only used if not run concurrently
+                ConcurrentStats::snapshot,                                     // Finisher: reads the striped cells once
+                Collector.Characteristics.CONCURRENT,
+                Collector.Characteristics.UNORDERED
+        );
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // Many producer threads feeding one live aggregate
+        ConcurrentStats live = new ConcurrentStats();
+        int producers = 8;
+        int valuesPerProducer = 100_000;
+        CountDownLatch done = new CountDownLatch(producers);
+        try (ExecutorService executor = Executors.newFixedThreadPool(producers)) {
+            for (int p = 0; p < producers; p++) {
+                executor.execute(() -> {
+                    for (int i = 1; i <= valuesPerProducer; i++) {
+                        live.accept(i);
+                    }
+                    done.countDown();
+                });
+            }
+            done.await();
+        }
+        Stats liveStats = live.snapshot();
+        System.out.println("Live aggregate: " + liveStats);
+
+        // Same aggregate through a concurrent collector on a parallel stream
+        List<Double> numbers = List.of(1.0, 2.5, 3.0, 4.5, 5.0, 6.5, 7.0, 8.5, 9.0, 10.5);
+        Stats streamStats = numbers.parallelStream().collect(toConcurrentStats(Double::doubleValue));
+        System.out.println("Concurrent collector: " + streamStats);
+
+        // Verification
+        assert liveStats.getCount() == (long) producers * valuesPerProducer;
+        assert liveStats.getSum() == producers * (valuesPerProducer * (valuesPerProducer + 1.0) / 2);
+        assert liveStats.getMin() == 1.0 && liveStats.getMax() == valuesPerProducer;
+        assert streamStats.getCount() == 10 && streamStats.getSum() == 57.5;
+        assert streamStats.getMin() == 1.0 && streamStats.getMax() == 10.5;
+        System.out.println("\nTest Passed! ✅");
+    }
+}
@@ -0,0 +1,721 @@
+package advance;
+
+import advance.ConcurrentMapWithMerge.KeyLog;
+import advance.ConcurrentMapWithMerge.Operation;
+import advance.ConcurrentMapWithMerge.Update;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable version of the merged update state of {@link ConcurrentMapWithMerge}: updates are logged to disk,
+ * so after a crash the state is recovered from a snapshot and the end of the log instead of the whole history.
+ * <a/>
+ * Files in the store's directory (little-endian):
+ * - wal-[generation].log: write-ahead log, one batch per group commit: magic, body length (int), CRC32 of the body
+ *   (int), then the body: one record per update: operation (byte), key and value (each as UTF-8 length (int) and bytes)
+ * - snapshot-[generation].bin: merged state of every update logged before wal-[generation].log: magic, version,
+ *   generation, entry count, the (key, value) entries as UTF-8 length and bytes, then a CRC32 of all of it
+ * <a/>
+ * Writing:
+ * 1. {@link #append} encodes the update into an in-memory batch and applies it to the state. It is not durable yet.
+ * 2. {@link #sync} makes every update appended so far durable (group commit): one thread writes the whole batch
+ *    to the log and forces it to disk while the other syncing threads wait, so one fsync covers the updates of
+ *    every thread. Appending continues into a second batch meanwhile.
+ * 3. Once the log has grown past the snapshot threshold, a sync rolls over to a new log generation and writes
+ *    a snapshot of the state as of the roll, then deletes the older logs and snapshots. The state is compacted
+ *    at the same time (every key holds one String again). Syncs go on in the new log while the snapshot is written.
+ * <a/>
+ * Recovery loads the newest snapshot and replays only the logs of its generation and later.
+ * A batch is written only after the one before it is forced, so a crash can only tear the last batch, in any
+ * order of its pages. A batch cut short or failing its checksum in the last log, with no complete batch after it,
+ * was never synced, so the log is truncated there; anywhere else it means the files are corrupt.
+ * The directory is forced after a log is created and after a snapshot is renamed into place, before older files
+ * are deleted, so a crash can't lose a file's directory entry.
+ * <a/>
+ * If writing the log fails, the store stops: every later append and sync throws, since the updates of the
+ * failed batch can no longer be logged in order. Reopening the store recovers every synced update.
+ * <a/>
+ * Thread-safe: any number of threads can append, sync and read.
+ */
+public class DurableUpdateStore implements AutoCloseable {
+    public static final long DEFAULT_SNAPSHOT_THRESHOLD = 64L << 20;   // log bytes between two snapshots
+
+    private static final int SNAPSHOT_MAGIC = 0x50414E53;  // "SNAP"
+    private static final int VERSION = 1;
+    private static final int BATCH_MAGIC = 0x48435442;     // "BTCH"
+    private static final int BATCH_HEADER_SIZE = 12;       // magic, body length and CRC32
+    private static final int RECORD_OVERHEAD = 1 + 2 * Integer.BYTES;  // operation, key and value lengths
+    private static final int BATCH_SIZE = 1 << 20;
+    private static final long MAX_LOG_SIZE = Integer.MAX_VALUE;  // a log is replayed through one mapping
+
+    private final Path directory;
+    private final long snapshotThreshold;
+
+    // Guarded by stateLock: the state and the batch being filled
+    private final Object stateLock = new Object();
+    private final Map<String, KeyLog> state;
+    private ByteBuffer batch = newLogBatch();
+    private long appended;           // sequence of the last update appended
+
+    // Guarded by commitLock: the log file, and the batch that is written while the other one fills
+    private final Object commitLock = new Object();
+    private FileChannel log;
+    private long generation;
+    private long logSize;
+    private ByteBuffer spare = newLogBatch();
+    private volatile long durable;   // sequence of the last update forced to disk
+    private volatile IOException failure;  // set when the log could not be written: the store is unusable
+
+    // Guarded by snapshotLock: one snapshot written at a time
+    private final Object snapshotLock = new Object();
+    private long lastSnapshot = -1;
+
+    private DurableUpdateStore(Path directory, long snapshotThreshold, Map<String, KeyLog> state,
+                               FileChannel log, long generation, long logSize) {
+        this.directory = directory;
+        this.snapshotThreshold = snapshotThreshold;
+        this.state = state;
+        this.log = log;
+        this.generation = generation;
+        this.logSize = logSize;
+    }
+
+    /**
+     * @see #open(Path, long)
+     */
+    public static DurableUpdateStore open(Path directory) {
+        return open(directory, DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    /**
+     * Opens the store in a directory, creating it if needed, and recovers the state from its files.
+     *
+     * @param directory Directory holding the log and snapshot files of this store only
+     * @param snapshotThreshold Log size, in bytes, after which a snapshot is taken (at most 1 GB)
+     * @return The open store, to be closed after use
+     * @throws RuntimeException if the files can't be read or are corrupt
+     */
+    public static DurableUpdateStore open(Path directory, long snapshotThreshold) {
+        if (snapshotThreshold <= 0 || snapshotThreshold > MAX_LOG_SIZE / 2) {
+            throw new IllegalArgumentException("Snapshot threshold must be in (0, 1 GB]: " + snapshotThreshold);
+        }
+        try {
+            Files.createDirectories(directory);
+            List<Long> snapshots = generations(directory, "snapshot-", ".bin");
+            List<Long> logs = generations(directory, "wal-", ".log");
+
+            // 1. The newest snapshot
+            Map<String, KeyLog> state = new HashMap<>();
+            long base = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+            if (!snapshots.isEmpty()) {
+                readSnapshot(snapshotFile(directory, base), base, state);
+            }
+
+            // 2. The logs written since, in order
+            List<Long> replayed = logs.stream().filter(g -> g >= base).toList();
+            for (int i = 0; i < replayed.size(); i++) {
+                replay(logFile(directory, replayed.get(i)), i == replayed.size() - 1, state);
+            }
+
+            // 3. Leftovers of an interrupted snapshot or cleanup
+            deleteBefore(directory, base);
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path tmp : files.filter(f -> f.getFileName().toString().endsWith(".tmp")).toList()) {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+
+            // 4. Appends continue at the end of the last log
+            long generation = replayed.isEmpty() ? base : replayed.get(replayed.size() - 1);
+            FileChannel log = FileChannel.open(logFile(directory, generation),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            forceDirectory(directory);
+            long logSize = log.size();
+            log.position(logSize);
+            return new DurableUpdateStore(directory, snapshotThreshold, state, log, generation, logSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading file = " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Logs the update in the current batch and applies it to the state.
+     * The update is durable once {@link #sync(long)} has been called with its sequence (or a later one).
+     *
+     * @return Sequence of the update in this open store
+     */
+    public long append(Update update) {
+        String key = Objects.requireNonNull(update.key(), "key");
+        String value = Objects.requireNonNull(update.value(), "value");
+        byte op = (byte) update.op().ordinal();
+        int maxRecord = RECORD_OVERHEAD + 3 * (key.length() + value.length());  // at most 3 UTF-8 bytes per char
+
+        synchronized (stateLock) {
+            checkNotFailed();
+            if (batch.remaining() < maxRecord) {
+                batch = grow(batch, maxRecord);
+            }
+            // Encoded straight into the batch: no byte[] per update; the checksum is computed once per batch
+            batch.put(op);
+            putUtf8(batch, key);
+            putUtf8(batch, value);
+            state.computeIfAbsent(key, k -> new KeyLog()).apply(update.op(), value);
+            return ++appended;
+        }
+    }
+
+    /**
+     * Appends the updates and makes them durable, with one fsync for the whole list.
+     */
+    public void write(List<Update> updates) {
+        long last = 0;
+        for (Update update : updates) {
+            last = append(update);
+        }
+        sync(last);
+    }
+
+    /**
+     * Makes every update appended so far durable.
+     */
+    public void sync() {
+        long last;
+        synchronized (stateLock) {
+            last = appended;
+        }
+        sync(last);
+    }
+
+    /**
+     * Returns once the update of the sequence, and every one before it, is on disk.
+     * If another thread is already writing a batch, waits for it: its fsync may cover this sequence too.
+     *
+     * @throws RuntimeException if the log can't be written
+     */
+    public void sync(long sequence) {
+        if (durable >= sequence) {
+            return;
+        }
+        Snapshot snapshot = null;
+        synchronized (commitLock) {
+            if (durable >= sequence) {
+                return;  // covered by the group commit of another thread
+            }
+            checkNotFailed();
+            boolean roll = logSize >= snapshotThreshold;
+            ByteBuffer toWrite;
+            long upTo;
+            synchronized (stateLock) {
+                toWrite = batch;
+                batch = spare;
+                upTo = appended;
+                if (roll) {
+                    snapshot = compact(generation + 1);
+                }
+            }
+            try {
+                toWrite.flip();
+                CRC32 checksum = new CRC32();
+                checksum.update(toWrite.slice(BATCH_HEADER_SIZE, toWrite.limit() - BATCH_HEADER_SIZE));
+                toWrite.putInt(0, BATCH_MAGIC)
+                        .putInt(Integer.BYTES, toWrite.limit() - BATCH_HEADER_SIZE)
+                        .putInt(2 * Integer.BYTES, (int) checksum.getValue());
+                logSize += toWrite.remaining();
+                while (toWrite.hasRemaining()) {
+                    log.write(toWrite);
+                }
+                log.force(false);
+                toWrite.clear().position(BATCH_HEADER_SIZE);
+                spare = toWrite;
+                durable = upTo;
+                if (roll) {
+                    // The old log now holds exactly the updates of the snapshot: later ones go to the new log
+                    log.close();
+                    generation++;
+                    log = FileChannel.open(logFile(directory, generation), StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                    forceDirectory(directory);  // the new log's directory entry, before anything relies on it
+                    logSize = 0;
+                }
+            } catch (IOException e) {
+                // Part of the batch may be in the log, and the batch buffers are no longer consistent:
+                // the updates of the failed batch can never be logged in order, so the store stops here
+                failure = e;
+                throw new RuntimeException("Error writing file = " + e.getMessage(), e);
+            }
+        }
+        if (snapshot != null) {
+            writeSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if a write to the log failed before; the store must be reopened,
+     *         which recovers every update that was synced
+     */
+    private void checkNotFailed() {
+        IOException cause = failure;
+        if (cause != null) {
+            throw new IllegalStateException("Store failed, reopen it: " + cause, cause);
+        }
+    }
+
+    /**
+     * @return The current value of the key (including updates not synced yet), or null
+     */
+    public String get(String key) {
+        synchronized (stateLock) {
+            KeyLog keyLog = state.get(key);
+            return keyLog == null ? null : keyLog.materialize();
+        }
+    }
+
+    /**
+     * @return A copy of the whole state, in the shape of {@link ConcurrentMapWithMerge#processUpdates(List)}
+     */
+    public ConcurrentMap<String, String> toMap() {
+        synchronized (stateLock) {
+            ConcurrentMap<String, String> result = new ConcurrentHashMap<>(Math.max(16, state.size() * 4 / 3 + 1));
+            state.forEach((key, keyLog) -> result.put(key, keyLog.materialize()));
+            return result;
+        }
+    }
+
+    /**
+     * Syncs every appended update and closes the log.
+     */
+    @Override
+    public void close() {
+        if (failure == null) {
+            sync();
+        }
+        synchronized (commitLock) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Error closing file = " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * The merged state at a log roll, to be written as the snapshot of the new generation.
+     */
+    private record Snapshot(long generation, String[] keys, String[] values) {}
+
+    /**
+     * Materializes every key once, and keeps that String as the key's only update. Called with stateLock held.
+     */
+    private Snapshot compact(long snapshotGeneration) {
+        String[] keys = new String[state.size()];
+        String[] values = new String[state.size()];
+        int i = 0;
+        for (Map.Entry<String, KeyLog> entry : state.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i] = entry.getValue().materialize();
+            entry.setValue(new KeyLog().apply(Operation.SET, values[i]));
+            i++;
+        }
+        return new Snapshot(snapshotGeneration, keys, values);
+    }
+
+    /**
+     * Writes the snapshot to a temporary file, forces it and renames it into place, so a snapshot file is always
+     * complete. Only then the logs and snapshots it replaces are deleted.
+     */
+    private void writeSnapshot(Snapshot snapshot) {
+        synchronized (snapshotLock) {
+            if (snapshot.generation() <= lastSnapshot) {
+                return;  // a newer snapshot was written first
+            }
+            lastSnapshot = snapshot.generation();
+            Path file = snapshotFile(directory, snapshot.generation());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                CRC32 checksum = new CRC32();
+                ByteBuffer buffer = newBatch(BATCH_SIZE);
+                buffer.putInt(SNAPSHOT_MAGIC).putInt(VERSION).putLong(snapshot.generation()).putInt(snapshot.keys().length);
+                for (int i = 0; i < snapshot.keys().length; i++) {
+                    buffer = putString(channel, checksum, buffer, snapshot.keys()[i]);
+                    buffer = putString(channel, checksum, buffer, snapshot.values()[i]);
+                }
+                write(channel, checksum, buffer);
+                buffer.putInt((int) checksum.getValue());
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            } catch (IOException e) {
+                throw new RuntimeException("Error writing file = " + e.getMessage(), e);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                forceDirectory(directory);  // the rename must be durable before the files it replaces are deleted
+                deleteBefore(directory, snapshot.generation());
+            } catch (IOException e) {
+                throw new RuntimeException("Error writing file = " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static ByteBuffer putString(FileChannel channel, CRC32 checksum, ByteBuffer buffer, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < Integer.BYTES + bytes.length) {
+            write(channel, checksum, buffer);
+            if (buffer.remaining() < Integer.BYTES + bytes.length) {
+                buffer = grow(buffer, Integer.BYTES + bytes.length);
+            }
+        }
+        return buffer.putInt(bytes.length).put(bytes);
+    }
+
+    /**
+     * Writes the buffer's content to the channel, adding it to the checksum, and clears the buffer.
+     */
+    private static void write(FileChannel channel, CRC32 checksum, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        checksum.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void readSnapshot(Path file, long generation, Map<String, KeyLog> state) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 24 || size > MAX_LOG_SIZE) {
+                throw new IllegalStateException("Corrupt snapshot (size " + size + "): " + file);
+            }
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 checksum = new CRC32();
+            checksum.update(in.slice(0, (int) size - Integer.BYTES));
+            if (in.getInt((int) size - Integer.BYTES) != (int) checksum.getValue()
+                    || in.getInt() != SNAPSHOT_MAGIC || in.getInt() != VERSION || in.getLong() != generation) {
+                throw new IllegalStateException("Corrupt snapshot (header or checksum): " + file);
+            }
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                String key = getString(in);
+                state.put(key, new KeyLog().apply(Operation.SET, getString(in)));
+            }
+        }
+    }
+
+    /**
+     * Applies every batch of a log to the state. A torn batch at the end of the last log is cut off.
+     */
+    private static void replay(Path file, boolean last, Map<String, KeyLog> state) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size > MAX_LOG_SIZE) {
+                throw new IllegalStateException("Log too large to replay (" + size + " bytes): " + file);
+            }
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 checksum = new CRC32();
+            Operation[] operations = Operation.values();
+            while (in.hasRemaining()) {
+                int start = in.position();
+                int length = batchLength(in, start, checksum);
+                if (length < 0) {
+                    if (!last || completeBatchAfter(in, start, checksum)) {
+                        // A later batch was synced, so this one was too: cutting here would silently drop both
+                        throw new IllegalStateException("Corrupt log batch at byte " + start + ": " + file);
+                    }
+                    channel.truncate(start);  // the last batch, whose write never completed
+                    channel.force(true);
+                    break;
+                }
+                int end = start + BATCH_HEADER_SIZE + length;
+                in.position(start + BATCH_HEADER_SIZE);
+                while (in.position() < end) {
+                    int op = in.get();
+                    if (op < 0 || op >= operations.length) {
+                        throw new IllegalStateException("Corrupt log record at byte " + (in.position() - 1) + ": " + file);
+                    }
+                    String key = getString(in);
+                    String value = getString(in);
+                    state.computeIfAbsent(key, k -> new KeyLog()).apply(operations[op], value);
+                }
+                if (in.position() != end) {
+                    throw new IllegalStateException("Corrupt log batch at byte " + start + ": " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Length of the body of the complete batch (checksum included) starting at the position, or -1
+     */
+    private static int batchLength(ByteBuffer in, int start, CRC32 checksum) {
+        int limit = in.limit();
+        if (limit - start < BATCH_HEADER_SIZE || in.getInt(start) != BATCH_MAGIC) {
+            return -1;
+        }
+        int length = in.getInt(start + Integer.BYTES);
+        if (length < 0 || length > limit - start - BATCH_HEADER_SIZE) {
+            return -1;
+        }
+        checksum.reset();
+        checksum.update(in.slice(start + BATCH_HEADER_SIZE, length));
+        return in.getInt(start + 2 * Integer.BYTES) == (int) checksum.getValue() ? length : -1;
+    }
+
+    /**
+     * @return Whether a complete batch starts anywhere after the position
+     */
+    private static boolean completeBatchAfter(ByteBuffer in, int position, CRC32 checksum) {
+        for (int start = position + 1; start + BATCH_HEADER_SIZE <= in.limit(); start++) {
+            if (in.getInt(start) == BATCH_MAGIC && batchLength(in, start, checksum) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forces the directory's entries (created, renamed and deleted files) to disk. Opening a directory as a
+     * channel is how this is done on Linux; platforms that don't allow it (e.g. Windows) make the entries
+     * durable on their own, so the error is ignored there.
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!System.getProperty("os.name").startsWith("Windows")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Puts the string's UTF-8 bytes (an unpaired surrogate as '?', like {@link String#getBytes}) after their
+     * length. The buffer must have room for 4 + 3 * length bytes.
+     */
+    private static void putUtf8(ByteBuffer out, String value) {
+        int lengthAt = out.position();
+        out.position(lengthAt + Integer.BYTES);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F)).put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        out.putInt(lengthAt, out.position() - lengthAt - Integer.BYTES);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Generations of the files named prefix + generation + suffix, in increasing order
+     */
+    private static List<Long> generations(Path directory, String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(f -> f.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .map(name -> Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Deletes the logs and snapshots older than the generation, all included in its snapshot.
+     */
+    private static void deleteBefore(Path directory, long generation) throws IOException {
+        for (long old : generations(directory, "wal-", ".log")) {
+            if (old < generation) {
+                Files.deleteIfExists(logFile(directory, old));
+            }
+        }
+        for (long old : generations(directory, "snapshot-", ".bin")) {
+            if (old < generation) {
+                Files.deleteIfExists(snapshotFile(directory, old));
+            }
+        }
+    }
+
+    private static Path logFile(Path directory, long generation) {
+        return directory.resolve("wal-" + generation + ".log");
+    }
+
+    private static Path snapshotFile(Path directory, long generation) {
+        return directory.resolve("snapshot-" + generation + ".bin");
+    }
+
+    private static ByteBuffer newBatch(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return An empty batch, with room for its header in front
+     */
+    private static ByteBuffer newLogBatch() {
+        return newBatch(BATCH_SIZE).position(BATCH_HEADER_SIZE);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer grown = newBatch(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        return grown.put(buffer.flip());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("updates");
+        try {
+            // Some hot keys with long APPEND chains and many cold keys, with a SET now and then
+            Random random = new Random(42);
+            List<Update> updates = new ArrayList<>();
+            for (int i = 0; i < 1_000_000; i++) {
+                String key = random.nextInt(4) == 0 ? "hot" + random.nextInt(8) : "key" + random.nextInt(100_000);
+                Operation op = random.nextInt(50) == 0 ? Operation.SET : Operation.APPEND;
+                updates.add(new Update(key, "v" + i, op));
+            }
+            ConcurrentMap<String, String> expected = ConcurrentMapWithMerge.processUpdates(updates);
+
+            // Ingest in batches of 10,000 updates, one fsync each; the small threshold forces several snapshots
+            long start = System.nanoTime();
+            try (DurableUpdateStore store = open(directory, 4 << 20)) {
+                for (int from = 0; from < updates.size(); from += 10_000) {
+                    store.write(updates.subList(from, from + 10_000));
+                }
+                assert store.toMap().equals(expected);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Ingested %,d updates in %.2f s (%,.0f updates/s)%n",
+                    updates.size(), seconds, updates.size() / seconds);
+            assert !generations(directory, "snapshot-", ".bin").isEmpty();
+            assert generations(directory, "wal-", ".log").size() == 1;  // older logs are in the snapshot
+
+            // Restart: the latest snapshot plus the end of the log
+            try (DurableUpdateStore store = open(directory)) {
+                assert store.toMap().equals(expected);
+            }
+
+            // A crash in the middle of a write leaves a torn batch at the end of the log: it is cut off
+            Path lastLog = logFile(directory, generations(directory, "wal-", ".log").get(0));
+            long before = Files.size(lastLog);
+            Files.write(lastLog, new byte[]{42, 0, 0, 0, 1, 2, 3}, StandardOpenOption.APPEND);
+            try (DurableUpdateStore store = open(directory)) {
+                assert Files.size(lastLog) == before;
+                assert store.toMap().equals(expected);
+                store.write(List.of(new Update("hot0", "after restart", Operation.APPEND)));
+                expected.merge("hot0", "after restart", (value, appended) -> value + "," + appended);
+            }
+            try (DurableUpdateStore store = open(directory)) {
+                assert store.toMap().equals(expected);
+            }
+
+            // A damaged batch with complete batches after it is corruption, not a torn tail: nothing is cut
+            try (DurableUpdateStore store = open(directory)) {
+                for (String value : List.of("first batch", "second batch")) {
+                    store.write(List.of(new Update("hot1", value, Operation.APPEND)));
+                    expected.merge("hot1", value, (current, appended) -> current + "," + appended);
+                }
+            }
+            byte[] logBytes = Files.readAllBytes(lastLog);
+            byte[] damaged = logBytes.clone();
+            damaged[BATCH_HEADER_SIZE + 2] ^= 1;  // inside the first record of the first batch
+            Files.write(lastLog, damaged);
+            try {
+                open(directory).close();
+                assert false : "opened a log with a corrupt batch in the middle";
+            } catch (IllegalStateException expectedFailure) {
+                assert Files.size(lastLog) == logBytes.length;
+            }
+            Files.write(lastLog, logBytes);
+
+            // Group commit: threads appending and syncing one update at a time share fsyncs
+            try (DurableUpdateStore store = open(directory)) {
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    String key = "thread" + t;
+                    threads.add(Thread.ofPlatform().start(() -> {
+                        for (int i = 0; i < 500; i++) {
+                            store.sync(store.append(new Update(key, String.valueOf(i), i == 0 ? Operation.SET : Operation.APPEND)));
+                        }
+                    }));
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                String expectedChain = String.join(",", Stream.iterate(0, i -> i + 1).limit(500).map(String::valueOf).toList());
+                for (int t = 0; t < 4; t++) {
+                    assert store.get("thread" + t).equals(expectedChain);
+                    expected.put("thread" + t, expectedChain);
+                }
+            }
+            try (DurableUpdateStore store = open(directory)) {
+                assert store.toMap().equals(expected);
+            }
+
+            // A crash while writing a big batch: its later pages reached the disk, its first one didn't.
+            // Only unsynced updates are in it, so it is cut off, and the synced ones are all kept
+            long synced;
+            try (DurableUpdateStore store = open(directory)) {
+                List<Update> first = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    first.add(new Update("synced" + i, "é€𝄞" + i, Operation.SET));
+                    expected.put("synced" + i, "é€𝄞" + i);
+                }
+                store.write(first);
+                synced = Files.size(lastLog);
+                List<Update> torn = new ArrayList<>();
+                for (int i = 0; i < 2_000; i++) {
+                    torn.add(new Update("torn" + i, "v" + i, Operation.SET));
+                }
+                store.write(torn);
+            }
+            try (FileChannel channel = FileChannel.open(lastLog, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(4096), synced);
+            }
+            try (DurableUpdateStore store = open(directory)) {
+                assert Files.size(lastLog) == synced;
+                assert store.toMap().equals(expected);
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+        System.out.println("\nTest Passed! ✅");
+    }
+}
@@ -0,0 +1,277 @@
+package advance;
+
+import beginner.WordCountTable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collector;
+
+/**
+ * Two-level grouping by a (String, int) key in one flat hash table, instead of nested groupingBy collectors.
+ * <a/>
+ * groupingBy(category, groupingBy(year, downstream)) creates an inner HashMap per category and a boxed Integer
+ * key per element. Here each (outer, inner) tuple is hashed straight into one open-addressing table
+ * of parallel arrays (outer key, int inner key, downstream container):
+ * - no map per level and no tuple or Integer per element; the String hash is cached by the String itself
+ * - one downstream container per cell, the same as the nested version
+ * <a/>
+ * The finisher returns the usual nested Map<String, Map<Integer, D>> shape: the outer map holds one
+ * read-only view per outer key, and the inner views read the finished cells from the flat table.
+ * Integer keys are only created when an inner view is iterated.
+ */
+public class FlatGrouping {
+    private static final int CELL_EXPECTED_VALUES = 4;
+
+    /**
+     * Groups elements by an outer String key and an inner int key, like
+     * groupingBy(outerKey, groupingBy(innerKey, downstream)).
+     *
+     * @param outerKey Extracts the outer key (e.g. the category); must not be null
+     * @param innerKey Extracts the inner key (e.g. the year)
+     * @param downstream Collector applied to the elements of each (outer, inner) cell
+     * @return A collector producing a nested map of read-only views
+     */
+    public static <T, A, D> Collector<T, ?, Map<String, Map<Integer, D>>> groupingBy(
+            Function<? super T, String> outerKey,
+            ToIntFunction<? super T> innerKey,
+            Collector<? super T, A, D> downstream) {
+        Supplier<A> cellSupplier = downstream.supplier();
+        BiConsumer<A, ? super T> cellAccumulator = downstream.accumulator();
+        BinaryOperator<A> cellCombiner = downstream.combiner();
+        Function<A, D> cellFinisher = downstream.finisher();
+
+        return Collector.of(
+                // Supplier: one flat table per container
+                Table<A>::new,
+                // Accumulator: find or create the cell of the element's (outer, inner) key, and feed it the element
+                (table, element) -> {
+                    String outer = Objects.requireNonNull(outerKey.apply(element), "element cannot be mapped to a null key");
+                    int slot = table.slotOf(outer, innerKey.applyAsInt(element), cellSupplier);
+                    cellAccumulator.accept(table.container(slot), element);
+                },
+                // Combiner: cells of the right table are combined into the matching cells of the left one
+                (left, right) -> left.merge(right, cellSupplier, cellCombiner),
+                // Finisher: finish every cell in place and expose the nested view
+                table -> table.finish(cellFinisher)
+        );
+    }
+
+    /**
+     * Counts the distinct values of a String property, e.g. distinct product ids per cell.
+     * The values are kept in a {@link WordCountTable}, whose chars live in one arena, instead of a
+     * HashSet or a toMap of whole elements. Most cells hold a few values, so each table starts sized for
+     * {@value #CELL_EXPECTED_VALUES} of them and grows on demand.
+     */
+    public static <T> Collector<T, ?, Long> distinctCount(Function<? super T, ? extends CharSequence> value) {
+        return Collector.of(
+                // Supplier: an empty table of distinct values, small until the cell proves big
+                () -> new WordCountTable(CELL_EXPECTED_VALUES),
+                // Accumulator: add the value; repeats only bump its count
+                (table, element) -> table.add(value.apply(element)),
+                // Combiner: merge the tables of two partial results
+                WordCountTable::merge,
+                // Finisher: the number of distinct values
+                table -> (long) table.size()
+        );
+    }
+
+    /**
+     * Open-addressing table (linear probing) keyed by (String, int), holding one downstream container per cell.
+     * After finish() the container array holds the finished results instead.
+     */
+    private static final class Table<A> {
+        private String[] outerKeys = new String[16];   // null marks an empty slot
+        private int[] innerKeys = new int[16];
+        private int[] hashes = new int[16];
+        private Object[] containers = new Object[16];
+        private int size;
+
+        int slotOf(String outer, int inner, Supplier<A> supplier) {
+            int hash = hash(outer, inner);
+            int mask = outerKeys.length - 1;
+            int slot = hash & mask;
+            while (outerKeys[slot] != null) {
+                if (hashes[slot] == hash && innerKeys[slot] == inner && outerKeys[slot].equals(outer)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size + 1 > outerKeys.length * 3 / 4) {
+                grow();
+                return slotOf(outer, inner, supplier);
+            }
+            outerKeys[slot] = outer;
+            innerKeys[slot] = inner;
+            hashes[slot] = hash;
+            containers[slot] = supplier.get();
+            size++;
+            return slot;
+        }
+
+        /**
+         * @return The slot of the key, or -1
+         */
+        int find(String outer, int inner) {
+            int hash = hash(outer, inner);
+            int mask = outerKeys.length - 1;
+            for (int slot = hash & mask; outerKeys[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && innerKeys[slot] == inner && outerKeys[slot].equals(outer)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        @SuppressWarnings("unchecked")
+        A container(int slot) {
+            return (A) containers[slot];
+        }
+
+        Table<A> merge(Table<A> other, Supplier<A> supplier, BinaryOperator<A> combiner) {
+            for (int i = 0; i < other.outerKeys.length; i++) {
+                if (other.outerKeys[i] != null) {
+                    int slot = slotOf(other.outerKeys[i], other.innerKeys[i], supplier);
+                    containers[slot] = combiner.apply(container(slot), other.container(i));
+                }
+            }
+            return this;
+        }
+
+        <D> Map<String, Map<Integer, D>> finish(Function<A, D> finisher) {
+            for (int slot = 0; slot < outerKeys.length; slot++) {
+                if (outerKeys[slot] != null) {
+                    containers[slot] = finisher.apply(container(slot));
+                }
+            }
+            // Slots of each outer key, so an inner view only walks its own cells
+            Map<String, int[]> slotsByOuter = new HashMap<>();
+            for (int slot = 0; slot < outerKeys.length; slot++) {
+                if (outerKeys[slot] != null) {
+                    int[] slots = slotsByOuter.get(outerKeys[slot]);
+                    if (slots == null) {
+                        slots = new int[4];
+                    } else if (slots[0] + 1 == slots.length) {
+                        slots = Arrays.copyOf(slots, slots.length * 2);
+                    }
+                    slots[++slots[0]] = slot;
+                    slotsByOuter.put(outerKeys[slot], slots);
+                }
+            }
+            Map<String, Map<Integer, D>> result = new HashMap<>();
+            slotsByOuter.forEach((outer, slots) -> result.put(outer, new InnerView<>(this, outer, slots)));
+            return Collections.unmodifiableMap(result);
+        }
+
+        private void grow() {
+            String[] oldOuterKeys = outerKeys;
+            int[] oldInnerKeys = innerKeys;
+            int[] oldHashes = hashes;
+            Object[] oldContainers = containers;
+            int capacity = oldOuterKeys.length * 2;
+            outerKeys = new String[capacity];
+            innerKeys = new int[capacity];
+            hashes = new int[capacity];
+            containers = new Object[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldOuterKeys.length; i++) {
+                if (oldOuterKeys[i] != null) {
+                    int slot = oldHashes[i] & mask;
+                    while (outerKeys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    outerKeys[slot] = oldOuterKeys[i];
+                    innerKeys[slot] = oldInnerKeys[i];
+                    hashes[slot] = oldHashes[i];
+                    containers[slot] = oldContainers[i];
+                }
+            }
+        }
+
+        private static int hash(String outer, int inner) {
+            int h = outer.hashCode() * 31 + inner;
+            return h ^ (h >>> 16);  // spread the high bits, like HashMap
+        }
+    }
+
+    /**
+     * Read-only inner map of one outer key: the finished cells of that key in the flat table.
+     *
+     * @param slots Number of slots at index 0, then the slots
+     */
+    private static final class InnerView<D> extends AbstractMap<Integer, D> {
+        private final Table<?> table;
+        private final String outer;
+        private final int[] slots;
+
+        InnerView(Table<?> table, String outer, int[] slots) {
+            this.table = table;
+            this.outer = outer;
+            this.slots = slots;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public D get(Object key) {
+            if (!(key instanceof Integer inner)) {
+                return null;
+            }
+            int slot = table.find(outer, inner);
+            return slot < 0 ? null : (D) table.containers[slot];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer inner && table.find(outer, inner) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return slots[0];
+        }
+
+        @Override
+        public Set<Entry<Integer, D>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return slots[0];
+                }
+
+                @Override
+                public Iterator<Entry<Integer, D>> iterator() {
+                    return new Iterator<>() {
+                        private int next = 1;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next <= slots[0];
+                        }
+
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public Entry<Integer, D> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int slot = slots[next++];
+                            return Map.entry(table.innerKeys[slot], (D) table.containers[slot]);
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
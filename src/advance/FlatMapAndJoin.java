@@ -1,5 +1,19 @@
 package advance;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -75,6 +89,152 @@ public class FlatMapAndJoin {
                 .collect(Collectors.joining("; "));
     }
 
+    /**
+     * Writes the same entries as {@link #listBooksPublishedAfter(List, int)} to an Appendable (a Writer,
+     * a StringBuilder...), as they are found, instead of building one String of the whole list.
+     * <a/>
+     * For large catalogs the String version keeps every "Author: Title" String in the joiner and then copies them
+     * all into the result, and String.format parses its pattern for every book. Here each entry is written
+     * as its parts (name, ": ", title) straight to the output, so the only memory used is the output's own buffer.
+     * The characters written are exactly those of listBooksPublishedAfter.
+     *
+     * @param authors List of authors with their books
+     * @param year The year to filter books after
+     * @param out Where the entries are written
+     * @return The output, for chaining
+     * @throws RuntimeException if there's an error writing to the output
+     */
+    public static <A extends Appendable> A writeBooksPublishedAfter(List<Author> authors, int year, A out) {
+        try {
+            boolean first = true;
+            for (Author author : authors) {
+                for (Book book : author.books) {
+                    if (book.publishYear > year) {
+                        if (!first) {
+                            out.append("; ");
+                        }
+                        // Same text as String.format("%s: %s", ...): a null name or title is written as "null"
+                        out.append(author.name).append(": ").append(book.title);
+                        first = false;
+                    }
+                }
+            }
+            return out;
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing books = " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the entries of {@link #listBooksPublishedAfter(List, int)} to a channel, encoded as UTF-8.
+     * The bytes are those of listBooksPublishedAfter(authors, year).getBytes(UTF_8), produced through one
+     * reusable char buffer and one reusable byte buffer whatever the size of the list.
+     * The channel is not closed.
+     *
+     * @throws RuntimeException if there's an error writing to the channel
+     */
+    public static void writeBooksPublishedAfter(List<Author> authors, int year, WritableByteChannel channel) {
+        Utf8ChannelWriter writer = new Utf8ChannelWriter(channel);
+        writeBooksPublishedAfter(authors, year, writer);
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing books = " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writer encoding to UTF-8 into a channel, through fixed buffers.
+     * Malformed chars (a lone surrogate) are replaced by '?', like String.getBytes does.
+     */
+    private static final class Utf8ChannelWriter extends Writer {
+        private static final int BUFFER_SIZE = 1 << 13;
+
+        private final WritableByteChannel channel;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE * 3);  // room for any full char buffer
+
+        Utf8ChannelWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public Writer append(CharSequence text) throws IOException {
+            String value = String.valueOf(text);  // "null" for null, like String.format
+            write(value, 0, value.length());
+            return this;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            for (int end = offset + length; offset < end; ) {
+                int count = Math.min(chars.remaining(), end - offset);
+                chars.put(text, offset, offset + count);
+                offset += count;
+                if (!chars.hasRemaining()) {
+                    encode(false);
+                }
+            }
+        }
+
+        @Override
+        public void write(char[] text, int offset, int length) throws IOException {
+            for (int end = offset + length; offset < end; ) {
+                int count = Math.min(chars.remaining(), end - offset);
+                chars.put(text, offset, count);
+                offset += count;
+                if (!chars.hasRemaining()) {
+                    encode(false);
+                }
+            }
+        }
+
+        /**
+         * Encodes and writes everything written so far. Ends the input: nothing may be written afterwards.
+         */
+        @Override
+        public void flush() throws IOException {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * Encodes the buffered chars. Unless the input ends, a high surrogate at the end of the buffer stays
+         * in it until its low surrogate arrives.
+         */
+        private void encode(boolean endOfInput) throws IOException {
+            chars.flip();
+            CoderResult result;
+            while ((result = encoder.encode(chars, bytes, endOfInput)).isOverflow()) {
+                drain();
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            chars.compact();
+            drain();
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
+
     public static void main(String[] args) {
         // Test data with various publication years
         Author author1 = new Author("Jane Doe", List.of(
@@ -93,6 +253,39 @@ public class FlatMapAndJoin {
         // Verification
         String expected = "Jane Doe: The Sequel; John Smith: The Final Chapter";
         assert result.equals(expected);
+
+        // Streaming versions: the same characters, and the same bytes as result.getBytes(UTF_8)
+        assert writeBooksPublishedAfter(authors, 2020, new StringBuilder()).toString().equals(result);
+        assert writeBooksPublishedAfter(authors, 2020, new StringWriter()).toString().equals(result);
+        assert Arrays.equals(channelBytes(authors, 2020), result.getBytes(StandardCharsets.UTF_8));
+        assert writeBooksPublishedAfter(authors, 2030, new StringBuilder()).toString().equals(listBooksPublishedAfter(authors, 2030));
+
+        // A catalog large enough to cross many buffer boundaries, with non-ASCII names, emoji (surrogate pairs)
+        // landing on every offset, a lone surrogate and null titles
+        List<Author> catalog = new ArrayList<>();
+        for (int a = 0; a < 2_000; a++) {
+            List<Book> books = new ArrayList<>();
+            for (int b = 0; b < 20; b++) {
+                String title = switch (b % 5) {
+                    case 0 -> "Título " + b;
+                    case 1 -> "📚".repeat(b % 7) + " Book " + b;
+                    case 2 -> "x".repeat(a % 13) + "\uD83D";
+                    case 3 -> null;
+                    default -> "書名 " + a;
+                };
+                books.add(new Book(title, 2000 + (a + b) % 30));
+            }
+            catalog.add(new Author("Author Ø" + a, books));
+        }
+        String expectedCatalog = listBooksPublishedAfter(catalog, 2010);
+        assert writeBooksPublishedAfter(catalog, 2010, new StringBuilder()).toString().equals(expectedCatalog);
+        assert Arrays.equals(channelBytes(catalog, 2010), expectedCatalog.getBytes(StandardCharsets.UTF_8));
         System.out.println("\nTest Passed! ✅");
     }
+
+    private static byte[] channelBytes(List<Author> authors, int year) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeBooksPublishedAfter(authors, year, Channels.newChannel(out));
+        return out.toByteArray();
+    }
 }
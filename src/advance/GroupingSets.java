@@ -0,0 +1,198 @@
+package advance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Several groupings of the same elements in one pass, like GROUPING SETS / CUBE / ROLLUP in SQL.
+ * <a/>
+ * Instead of one stream per grouping (e.g. by category and year, by category, by year, and the grand total),
+ * the collector reads the elements once:
+ * 1. The values of all the dimensions used by any requested grouping set are extracted once per element
+ * 2. The element is accumulated into its cell of every requested grouping set, with keys built from those values
+ * 3. Every cell is finished with the downstream finisher
+ * Every cell owns its own downstream container, and containers are only combined with the container of the same
+ * cell from another partial result, which is never used again: the usual collector contract. So any downstream
+ * collector works, including the ones whose combiner returns or modifies its second argument
+ * (e.g. toSet, which adds the smaller set to the larger one).
+ * <a/>
+ * A grouping set is given by the indexes of its dimensions, e.g. {0, 1} for (category, year) and {} for the total.
+ * The keys of its cells are lists of the dimension values, in the order of the indexes.
+ */
+public class GroupingSets {
+
+    /**
+     * The finished cells of every requested grouping set.
+     */
+    public static final class Result<D> {
+        private final Map<Integer, Map<List<Object>, D>> cellsBySet;
+
+        private Result(Map<Integer, Map<List<Object>, D>> cellsBySet) {
+            this.cellsBySet = cellsBySet;
+        }
+
+        /**
+         * @param dimensions Indexes of the dimensions of a requested grouping set, in increasing order
+         * @return Read-only map from the list of dimension values to the result of the cell
+         * @throws IllegalArgumentException if the grouping set was not requested
+         */
+        public Map<List<Object>, D> get(int... dimensions) {
+            Map<List<Object>, D> cells = cellsBySet.get(mask(dimensions));
+            if (cells == null) {
+                throw new IllegalArgumentException("Grouping set not requested: " + Arrays.toString(dimensions));
+            }
+            return cells;
+        }
+
+        /**
+         * @return The result over all elements (the empty grouping set), or null if there were no elements
+         */
+        public D grandTotal() {
+            return get().get(List.of());
+        }
+
+        @Override
+        public String toString() {
+            return cellsBySet.toString();
+        }
+    }
+
+    /**
+     * Every combination of the dimensions: 2^n grouping sets, from all dimensions down to the grand total.
+     */
+    public static <T, A, D> Collector<T, ?, Result<D>> cube(List<Function<? super T, ?>> dimensions,
+                                                           Collector<? super T, A, D> downstream) {
+        List<int[]> sets = new ArrayList<>();
+        for (int mask = (1 << dimensions.size()) - 1; mask >= 0; mask--) {
+            sets.add(indexes(mask));
+        }
+        return groupingSets(dimensions, sets, downstream);
+    }
+
+    /**
+     * The hierarchy of the dimensions: (d0, d1, ... dn-1), (d0, ... dn-2), ..., (d0) and the grand total.
+     */
+    public static <T, A, D> Collector<T, ?, Result<D>> rollup(List<Function<? super T, ?>> dimensions,
+                                                             Collector<? super T, A, D> downstream) {
+        List<int[]> sets = new ArrayList<>();
+        for (int size = dimensions.size(); size >= 0; size--) {
+            sets.add(indexes((1 << size) - 1));
+        }
+        return groupingSets(dimensions, sets, downstream);
+    }
+
+    /**
+     * Computes the requested grouping sets in one pass over the elements.
+     *
+     * @param dimensions Key extractors, referred to by index in the grouping sets (at most 30)
+     * @param sets Grouping sets, each given by the indexes of its dimensions
+     * @param downstream Collector applied to the elements of each cell
+     * @return A collector producing the cells of every grouping set
+     */
+    public static <T, A, D> Collector<T, ?, Result<D>> groupingSets(List<Function<? super T, ?>> dimensions,
+                                                                   List<int[]> sets,
+                                                                   Collector<? super T, A, D> downstream) {
+        if (dimensions.size() > 30) {
+            throw new IllegalArgumentException("At most 30 dimensions: " + dimensions.size());
+        }
+        List<Integer> masks = new ArrayList<>();
+        int used = 0;
+        for (int[] set : sets) {
+            int mask = mask(set);
+            if ((mask >>> dimensions.size()) != 0) {
+                throw new IllegalArgumentException("Unknown dimension in grouping set " + Arrays.toString(set));
+            }
+            if (!masks.contains(mask)) {
+                masks.add(mask);
+            }
+            used |= mask;
+        }
+        int[] usedDimensions = indexes(used);
+        // For each grouping set, the positions of its dimensions among the used dimensions
+        int[][] keyPositions = new int[masks.size()][];
+        for (int m = 0; m < masks.size(); m++) {
+            int[] setDimensions = indexes(masks.get(m));
+            keyPositions[m] = new int[setDimensions.length];
+            for (int i = 0; i < setDimensions.length; i++) {
+                keyPositions[m][i] = Arrays.binarySearch(usedDimensions, setDimensions[i]);
+            }
+        }
+
+        Supplier<A> cellSupplier = downstream.supplier();
+        BiConsumer<A, ? super T> cellAccumulator = downstream.accumulator();
+        BinaryOperator<A> cellCombiner = downstream.combiner();
+        Function<A, D> cellFinisher = downstream.finisher();
+
+        return Collector.<T, List<Map<List<Object>, A>>, Result<D>>of(
+                // Supplier: the cells of every grouping set
+                () -> {
+                    List<Map<List<Object>, A>> cellsBySet = new ArrayList<>(masks.size());
+                    for (int m = 0; m < masks.size(); m++) {
+                        cellsBySet.add(new HashMap<>());
+                    }
+                    return cellsBySet;
+                },
+                // Accumulator: the element goes into exactly one cell of each grouping set
+                (cellsBySet, element) -> {
+                    Object[] values = new Object[usedDimensions.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = dimensions.get(usedDimensions[i]).apply(element);
+                    }
+                    for (int m = 0; m < keyPositions.length; m++) {
+                        Object[] key = new Object[keyPositions[m].length];
+                        for (int i = 0; i < key.length; i++) {
+                            key[i] = values[keyPositions[m][i]];
+                        }
+                        cellAccumulator.accept(cellsBySet.get(m).computeIfAbsent(Arrays.asList(key), k -> cellSupplier.get()), element);
+                    }
+                },
+                // Combiner: combine the matching cells of two partial results
+                (left, right) -> {
+                    for (int m = 0; m < left.size(); m++) {
+                        Map<List<Object>, A> leftCells = left.get(m);
+                        right.get(m).forEach((key, container) -> leftCells.merge(key, container, cellCombiner));
+                    }
+                    return left;
+                },
+                // Finisher: finish every cell of every grouping set
+                cellsBySet -> {
+                    Map<Integer, Map<List<Object>, D>> result = new LinkedHashMap<>();
+                    for (int m = 0; m < masks.size(); m++) {
+                        Map<List<Object>, D> finished = new HashMap<>();
+                        cellsBySet.get(m).forEach((key, container) -> finished.put(key, cellFinisher.apply(container)));
+                        result.put(masks.get(m), Collections.unmodifiableMap(finished));
+                    }
+                    return new Result<>(result);
+                }
+        );
+    }
+
+    private static int mask(int[] dimensions) {
+        int mask = 0;
+        for (int dimension : dimensions) {
+            if (dimension < 0 || dimension >= 31) {
+                throw new IllegalArgumentException("Unknown dimension: " + dimension);
+            }
+            mask |= 1 << dimension;
+        }
+        return mask;
+    }
+
+    private static int[] indexes(int mask) {
+        int[] indexes = new int[Integer.bitCount(mask)];
+        for (int i = 0, bits = mask; bits != 0; i++, bits &= bits - 1) {
+            indexes[i] = Integer.numberOfTrailingZeros(bits);
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,167 @@
+package advance;
+
+import java.util.function.Function;
+import java.util.stream.Collector;
+
+/**
+ * Approximate distinct count (HyperLogLog) in a fixed amount of memory.
+ * <a/>
+ * Each value is hashed to 64 bits. The first p bits pick one of m = 2^p registers, and the register keeps
+ * the longest run of leading zeros (plus one) seen in the remaining bits. A long run is unlikely,
+ * so it hints at many distinct values; the harmonic mean over all registers turns the runs into an estimate.
+ * While many registers are still empty the estimate uses linear counting instead, which is nearly exact
+ * for small counts.
+ * <a/>
+ * Memory is m bytes whatever the number of values, e.g. 16 KB for the default precision 14.
+ * The standard error is about 1.04 / sqrt(m): 0.81% for p = 14, 1.6% for p = 12, 3.3% for p = 10.
+ * <a/>
+ * Two sketches of the same precision merge by taking the maximum of each register, which gives exactly the
+ * sketch of all their values: merging is lossless, so partial sketches from a parallel stream, or from
+ * different groups being rolled up, can be combined freely.
+ * Not thread-safe: use one sketch per collector container and {@link #merge} them.
+ */
+public class HyperLogLog {
+    public static final int DEFAULT_PRECISION = 14;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision Number of index bits p, in [4, 18]: 2^p registers of one byte
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be in [" + MIN_PRECISION + ", " + MAX_PRECISION + "]: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Collector counting the distinct values of a String property, with the default precision.
+     * A drop-in teeing partner for counting unique keys, in place of toMap(key, identity()) and size().
+     */
+    public static <T> Collector<T, ?, Long> distinctCount(Function<? super T, ? extends CharSequence> value) {
+        return distinctCount(value, DEFAULT_PRECISION);
+    }
+
+    /**
+     * Collector counting the distinct values of a String property.
+     *
+     * @param value Extracts the value to count; null values are ignored
+     * @param precision Number of index bits, see {@link #HyperLogLog(int)}
+     * @return A collector producing the estimated number of distinct values
+     */
+    public static <T> Collector<T, ?, Long> distinctCount(Function<? super T, ? extends CharSequence> value, int precision) {
+        return Collector.of(
+                // Supplier: an empty sketch, the same size whatever comes next
+                () -> new HyperLogLog(precision),
+                // Accumulator: hash the value into its register
+                (sketch, element) -> sketch.add(value.apply(element)),
+                // Combiner: register-wise maximum
+                HyperLogLog::merge,
+                // Finisher: the estimate, rounded
+                HyperLogLog::count,
+                Collector.Characteristics.UNORDERED
+        );
+    }
+
+    public void add(CharSequence value) {
+        if (value != null) {
+            addHash(hash(value));
+        }
+    }
+
+    /**
+     * Adds a value by its 64-bit hash. The hash must be well mixed: every bit should look random.
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // Leading zeros of the remaining bits; the guard bit caps the run at 64 - precision
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * Merges the other sketch into this one. Both must have the same precision.
+     *
+     * @param other The sketch to merge in (not modified)
+     * @return This sketch, now counting the values of both
+     */
+    public HyperLogLog merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches with different precision: "
+                    + precision + " and " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return The estimated number of distinct values, rounded
+     */
+    public long count() {
+        return Math.round(estimate());
+    }
+
+    public double estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            return m * Math.log((double) m / zeros);  // linear counting for small counts
+        }
+        return estimate;  // no large-range correction needed with 64-bit hashes
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    private static double alpha(int m) {
+        return switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+    }
+
+    /**
+     * 64-bit hash of the chars (FNV-1a), finished with the MurmurHash3 mixer so every output bit
+     * depends on every input char. String.hashCode has only 32 bits and too little mixing for this.
+     */
+    static long hash(CharSequence value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,446 @@
+package advance;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collector;
+
+/**
+ * Exact set of ints as a compressed bitmap (the Roaring layout), for distinct counts of ids that are
+ * (or can be dictionary-encoded as) ints.
+ * <a/>
+ * The int space is split into chunks of 2^16 values by the high 16 bits. Each non-empty chunk has one container
+ * for its low 16 bits, stored in whichever form is smaller:
+ * - array container: sorted char[] of the values, 2 bytes per value, up to {@value #ARRAY_MAX_SIZE} values
+ * - bitmap container: 65536 bits (8 KB), once the chunk holds more values than that
+ * So a set costs between 2 bytes per id (sparse ids) and 1 bit per id (dense ids, e.g. dictionary codes),
+ * instead of the ~100 bytes per id of a HashMap or HashSet entry.
+ * <a/>
+ * Union and intersection work chunk by chunk: two bitmap containers are combined 64 bits at a time,
+ * and array containers by merging sorted arrays, so combining the partial sets of a parallel stream is cheap.
+ * Not thread-safe: use one bitmap per collector container and {@link #or} them.
+ */
+public class IntBitmap {
+    private static final int ARRAY_MAX_SIZE = 4096;  // above this a bitmap container is smaller
+
+    private char[] keys = new char[4];                 // high 16 bits of each chunk, sorted
+    private Container[] containers = new Container[4];
+    private int size;                                  // number of chunks
+
+    /**
+     * Collector of the distinct int ids of the elements.
+     */
+    public static <T> Collector<T, ?, IntBitmap> toBitmap(ToIntFunction<? super T> id) {
+        return Collector.of(
+                // Supplier: an empty bitmap
+                IntBitmap::new,
+                // Accumulator: set the element's bit
+                (bitmap, element) -> bitmap.add(id.applyAsInt(element)),
+                // Combiner: union of the partial sets
+                IntBitmap::or,
+                Collector.Characteristics.IDENTITY_FINISH,
+                Collector.Characteristics.UNORDERED
+        );
+    }
+
+    /**
+     * Collector of the exact number of distinct int ids of the elements.
+     * A teeing partner for unique counts, in place of toMap(key, identity()) and size().
+     */
+    public static <T> Collector<T, ?, Long> distinctCount(ToIntFunction<? super T> id) {
+        return Collector.of(
+                IntBitmap::new,
+                (bitmap, element) -> bitmap.add(id.applyAsInt(element)),
+                IntBitmap::or,
+                IntBitmap::cardinality,
+                Collector.Characteristics.UNORDERED
+        );
+    }
+
+    public static IntBitmap of(int... values) {
+        IntBitmap bitmap = new IntBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        int index = findChunk(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertChunk(index, key, new ArrayContainer());
+        }
+        containers[index] = containers[index].add((char) value);
+    }
+
+    public boolean contains(int value) {
+        int index = findChunk((char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    /**
+     * @return Number of distinct values in the set
+     */
+    public long cardinality() {
+        long cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds every value of the other set to this one (union).
+     *
+     * @param other The set to add (not modified)
+     * @return This set
+     */
+    public IntBitmap or(IntBitmap other) {
+        char[] mergedKeys = new char[size + other.size];
+        Container[] merged = new Container[size + other.size];
+        int i = 0, j = 0, n = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                mergedKeys[n] = keys[i];
+                merged[n++] = containers[i++];
+            } else if (i == size || other.keys[j] < keys[i]) {
+                mergedKeys[n] = other.keys[j];
+                merged[n++] = other.containers[j++].copy();
+            } else {
+                mergedKeys[n] = keys[i];
+                merged[n++] = containers[i++].or(other.containers[j++]);
+            }
+        }
+        keys = mergedKeys;
+        containers = merged;
+        size = n;
+        return this;
+    }
+
+    /**
+     * @return A new set of the values in both sets (intersection)
+     */
+    public IntBitmap and(IntBitmap other) {
+        IntBitmap result = new IntBitmap();
+        for (int i = 0, j = 0; i < size && j < other.size; ) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container both = containers[i++].and(other.containers[j++]);
+                if (both.cardinality() > 0) {
+                    result.insertChunk(result.size, keys[i - 1], both);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of values in both sets, without building the intersection
+     */
+    public long andCardinality(IntBitmap other) {
+        long cardinality = 0;
+        for (int i = 0, j = 0; i < size && j < other.size; ) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                cardinality += containers[i++].andCardinality(other.containers[j++]);
+            }
+        }
+        return cardinality;
+    }
+
+    /**
+     * Passes every value to the action, in increasing unsigned order.
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    public int[] toArray() {
+        int[] values = new int[Math.toIntExact(cardinality())];
+        int[] n = {0};
+        forEach(value -> values[n[0]++] = value);
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IntBitmap other) || other.cardinality() != cardinality()) {
+            return false;
+        }
+        return andCardinality(other) == cardinality();
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return "IntBitmap[cardinality=" + cardinality() + "]";
+    }
+
+    private int findChunk(char key) {
+        if (size > 0 && keys[size - 1] == key) {
+            return size - 1;  // ids tend to arrive in order: the last chunk is the usual hit
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insertChunk(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+            containers = Arrays.copyOf(containers, Math.max(4, size * 2));
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    /**
+     * The low 16 bits of the values of one chunk. Operations return the container to keep,
+     * which may be a new one of the other kind; they never modify their argument.
+     */
+    private abstract static class Container {
+        abstract Container add(char value);
+        abstract boolean contains(char value);
+        abstract int cardinality();
+        abstract Container or(Container other);
+        abstract Container and(Container other);
+        abstract int andCardinality(Container other);
+        abstract void forEach(int high, IntConsumer action);
+        abstract Container copy();
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values = new char[4];
+        int size;
+
+        @Override
+        Container add(char value) {
+            int index = size > 0 && values[size - 1] < value ? -size - 1 : Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (size == ARRAY_MAX_SIZE) {
+                return toBitmap().add(value);
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_MAX_SIZE));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer bitmap) {
+                return bitmap.copy().or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            if (size + array.size > ARRAY_MAX_SIZE) {
+                return toBitmap().or(array);
+            }
+            // Merge of two sorted arrays
+            char[] merged = new char[Math.max(4, size + array.size)];
+            int i = 0, j = 0, n = 0;
+            while (i < size && j < array.size) {
+                char a = values[i], b = array.values[j];
+                merged[n++] = a <= b ? a : b;
+                if (a <= b) {
+                    i++;
+                }
+                if (b <= a) {
+                    j++;
+                }
+            }
+            while (i < size) {
+                merged[n++] = values[i++];
+            }
+            while (j < array.size) {
+                merged[n++] = array.values[j++];
+            }
+            values = merged;
+            size = n;
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            ArrayContainer result = new ArrayContainer();
+            result.values = new char[Math.max(4, size)];
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i])) {
+                    result.values[result.size++] = values[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            int cardinality = 0;
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i])) {
+                    cardinality++;
+                }
+            }
+            return cardinality;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < size; i++) {
+                action.accept(high | values[i]);
+            }
+        }
+
+        @Override
+        Container copy() {
+            ArrayContainer copy = new ArrayContainer();
+            copy.values = Arrays.copyOf(values, Math.max(4, size));
+            copy.size = size;
+            return copy;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                bitmap.set(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words = new long[1 << 10];  // 65536 bits
+        int cardinality;
+
+        void set(char value) {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            words[value >>> 6] = after;
+            if (after != before) {
+                cardinality++;
+            }
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof ArrayContainer array) {
+                for (int i = 0; i < array.size; i++) {
+                    set(array.values[i]);
+                }
+                return this;
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                words[i] |= otherWords[i];
+                count += Long.bitCount(words[i]);
+            }
+            cardinality = count;
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer array) {
+                return array.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            BitmapContainer result = new BitmapContainer();
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] & otherWords[i];
+                count += Long.bitCount(result.words[i]);
+            }
+            result.cardinality = count;
+            if (count > ARRAY_MAX_SIZE) {
+                return result;
+            }
+            // Small intersection: back to the smaller array form
+            ArrayContainer array = new ArrayContainer();
+            array.values = new char[Math.max(4, count)];
+            result.forEach(0, value -> array.values[array.size++] = (char) value);
+            return array;
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (other instanceof ArrayContainer array) {
+                return array.andCardinality(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                count += Long.bitCount(words[i] & otherWords[i]);
+            }
+            return count;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    action.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package advance;
+
+import java.util.stream.DoubleStream;
+
+/**
+ * {@link Stats} that also tracks the central moments, so variance, standard deviation, skewness
+ * and kurtosis come out of the same single pass as count, sum, min and max.
+ * <a/>
+ * Moments are updated online (Welford's method extended to the 3rd and 4th moment by Terriberry/Pébay):
+ * each value moves the running mean and corrects M2, M3 and M4 around it, which avoids the
+ * cancellation of the textbook sum(x^2) - n * mean^2 formulas on large or offset data.
+ * <a/>
+ * {@link #combine} merges partial moments with the pairwise formulas of Chan et al. / Pébay.
+ * They are exact in real arithmetic, so a parallel stream gives the same result as a sequential one
+ * up to floating point rounding.
+ */
+@SuppressWarnings("all")
+public class MomentStats extends Stats {
+    private double mean;
+    private double m2;  // sum of (x - mean)^2
+    private double m3;  // sum of (x - mean)^3
+    private double m4;  // sum of (x - mean)^4
+
+    @Override
+    public void accept(double value) {
+        long n1 = getCount();
+        super.accept(value);
+        long n = n1 + 1;
+
+        double delta = value - mean;
+        double deltaN = delta / n;
+        double deltaN2 = deltaN * deltaN;
+        double term1 = delta * deltaN * n1;
+        mean += deltaN;
+        // Update in order 4, 3, 2: each uses the previous values of the lower moments
+        m4 += term1 * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * m2 - 4 * deltaN * m3;
+        m3 += term1 * deltaN * (n - 2) - 3 * deltaN * m2;
+        m2 += term1;
+    }
+
+    /**
+     * Batch values still go through {@link #accept(double)}, since every value updates the moments.
+     */
+    @Override
+    public void acceptAll(double[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            accept(values[i]);
+        }
+    }
+
+    /**
+     * Merges the partial moments of another MomentStats into this one.
+     *
+     * @throws IllegalArgumentException if other is a plain Stats, which has no moments to merge
+     */
+    @Override
+    public void combine(Stats other) {
+        if (!(other instanceof MomentStats that)) {
+            throw new IllegalArgumentException("Cannot merge moments with " + other.getClass().getSimpleName());
+        }
+        double na = getCount();
+        double nb = that.getCount();
+        super.combine(other);
+        if (nb == 0) {
+            return;
+        }
+        if (na == 0) {
+            mean = that.mean;
+            m2 = that.m2;
+            m3 = that.m3;
+            m4 = that.m4;
+            return;
+        }
+
+        double n = na + nb;
+        double delta = that.mean - mean;
+        double delta2 = delta * delta;
+        double delta3 = delta2 * delta;
+        double delta4 = delta2 * delta2;
+
+        double combinedM4 = m4 + that.m4
+                + delta4 * na * nb * (na * na - na * nb + nb * nb) / (n * n * n)
+                + 6 * delta2 * (na * na * that.m2 + nb * nb * m2) / (n * n)
+                + 4 * delta * (na * that.m3 - nb * m3) / n;
+        double combinedM3 = m3 + that.m3
+                + delta3 * na * nb * (na - nb) / (n * n)
+                + 3 * delta * (na * that.m2 - nb * m2) / n;
+        double combinedM2 = m2 + that.m2 + delta2 * na * nb / n;
+
+        mean += delta * nb / n;
+        m2 = combinedM2;
+        m3 = combinedM3;
+        m4 = combinedM4;
+    }
+
+    /**
+     * Summarizes a primitive DoubleStream in one pass, merging partitions of a parallel stream.
+     */
+    public static MomentStats of(DoubleStream values) {
+        return values.collect(MomentStats::new, MomentStats::accept, MomentStats::combine);
+    }
+
+    public double getMean() { return mean; }
+
+    /**
+     * @return Population variance (divides by n), 0 if empty
+     */
+    public double getVariance() { return getCount() > 0 ? m2 / getCount() : 0.0; }
+
+    /**
+     * @return Sample variance (divides by n - 1), 0 if fewer than two values
+     */
+    public double getSampleVariance() { return getCount() > 1 ? m2 / (getCount() - 1) : 0.0; }
+
+    public double getStdDev() { return Math.sqrt(getVariance()); }
+
+    /**
+     * @return Population skewness, 0 if all values are equal
+     */
+    public double getSkewness() {
+        return m2 > 0 ? Math.sqrt(getCount()) * m3 / Math.pow(m2, 1.5) : 0.0;
+    }
+
+    /**
+     * @return Population excess kurtosis (0 for a normal distribution), 0 if all values are equal
+     */
+    public double getKurtosis() {
+        return m2 > 0 ? getCount() * m4 / (m2 * m2) - 3.0 : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MomentStats{count=%d, sum=%.2f, min=%.2f, max=%.2f, avg=%.2f, variance=%.4f, stdDev=%.4f, skewness=%.4f, kurtosis=%.4f}",
+                getCount(), getSum(), getMin(), getMax(), getAverage(), getVariance(), getStdDev(), getSkewness(), getKurtosis());
+    }
+}
@@ -1,10 +1,22 @@
 package advance;
 
+import beginner.RecordFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class MultiLevelGrouping {
     /**
@@ -39,13 +51,140 @@ public class MultiLevelGrouping {
                         sale -> sale.date.getYear(),
                         Collectors.teeing(
                             Collectors.summarizingDouble(Sale::revenue),
-                                Collectors.toMap(Sale::productId, Function.identity()),
+                                // Keep the first sale of a product: without a merge function toMap throws
+                                // IllegalStateException when a product sells twice in the same category and year
+                                Collectors.toMap(Sale::productId, Function.identity(), (first, second) -> first),
                                 (s, d) -> new CategoryYearSales(s.getSum(), d.size())
                         )
                 )
         ));
     }
 
+    /**
+     * Same summary as summarizeSalesByCategoryAndYear, but unique products are estimated with a
+     * {@link HyperLogLog} sketch of fixed size per group instead of keeping every product and sale.
+     * Counts are nearly exact while they are small, and within about 1.04 / sqrt(2^precision) beyond.
+     *
+     * @param sales List of sales transactions to analyze
+     * @param precision HyperLogLog precision, e.g. {@link HyperLogLog#DEFAULT_PRECISION} (16 KB per group)
+     * @return A nested map where:
+     *         - Outer key: Category name
+     *         - Inner key: Year
+     *         - Value: CategoryYearSales containing total revenue and estimated unique product count
+     */
+    public static Map<String, Map<Integer, CategoryYearSales>> summarizeSalesByCategoryAndYearApproximate(List<Sale> sales,
+                                                                                                        int precision) {
+        return sales.stream().collect(Collectors.groupingBy(
+                Sale::category,
+                Collectors.groupingBy(
+                        sale -> sale.date().getYear(),
+                        Collectors.teeing(
+                                Collectors.summarizingDouble(Sale::revenue),
+                                HyperLogLog.distinctCount(Sale::productId, precision),
+                                (s, d) -> new CategoryYearSales(s.getSum(), d)
+                        )
+                )
+        ));
+    }
+
+    /**
+     * Same summary as summarizeSalesByCategoryAndYear, with exact unique product counts kept in an
+     * {@link IntBitmap} per group: product ids are dictionary-encoded as ints while the sales are read
+     * (safe on parallel streams too), and each group keeps a compressed bitmap of its product codes.
+     *
+     * @param sales List of sales transactions to analyze
+     * @return A nested map where:
+     *         - Outer key: Category name
+     *         - Inner key: Year
+     *         - Value: CategoryYearSales containing total revenue and unique product count
+     */
+    public static Map<String, Map<Integer, CategoryYearSales>> summarizeSalesByCategoryAndYearExact(List<Sale> sales) {
+        ToIntFunction<Sale> productCode = productCodes();
+        return sales.stream().collect(Collectors.groupingBy(
+                Sale::category,
+                Collectors.groupingBy(
+                        sale -> sale.date().getYear(),
+                        Collectors.teeing(
+                                Collectors.summarizingDouble(Sale::revenue),
+                                IntBitmap.distinctCount(productCode),
+                                (s, d) -> new CategoryYearSales(s.getSum(), d)
+                        )
+                )
+        ));
+    }
+
+    /**
+     * Counts the products sold in every one of the given years, by intersecting the bitmaps of products per year.
+     *
+     * @param sales List of sales transactions to analyze
+     * @param years The years to compare, e.g. 2023 and 2024
+     * @return Number of distinct products with at least one sale in each year
+     */
+    public static long countProductsSoldInAllYears(List<Sale> sales, int... years) {
+        ToIntFunction<Sale> productCode = productCodes();
+        Map<Integer, IntBitmap> productsByYear = sales.stream().collect(Collectors.groupingBy(
+                sale -> sale.date().getYear(),
+                IntBitmap.toBitmap(productCode)
+        ));
+        IntBitmap inAll = null;
+        for (int year : years) {
+            IntBitmap products = productsByYear.getOrDefault(year, new IntBitmap());
+            inAll = inAll == null ? products : inAll.and(products);
+        }
+        return inAll == null ? 0 : inAll.cardinality();
+    }
+
+    /**
+     * Dictionary encoding of product ids: the first id seen gets 0, the next new one 1, and so on.
+     */
+    private static ToIntFunction<Sale> productCodes() {
+        Map<String, Integer> codes = new ConcurrentHashMap<>();
+        AtomicInteger nextCode = new AtomicInteger();
+        return sale -> codes.computeIfAbsent(sale.productId(), id -> nextCode.getAndIncrement());
+    }
+
+    /**
+     * Same summary as summarizeSalesByCategoryAndYear, grouped in one flat (category, year) table.
+     * See {@link FlatGrouping}: no inner map per category, no boxed year per sale, and unique products are
+     * counted in a compact table of product ids instead of a map of whole sales per cell.
+     *
+     * @param sales List of sales transactions to analyze
+     * @return A nested map (of read-only views) where:
+     *         - Outer key: Category name
+     *         - Inner key: Year
+     *         - Value: CategoryYearSales containing total revenue and unique product count
+     */
+    public static Map<String, Map<Integer, CategoryYearSales>> summarizeSalesByCategoryAndYearFlat(List<Sale> sales) {
+        return sales.stream().collect(FlatGrouping.groupingBy(
+                Sale::category,
+                sale -> sale.date().getYear(),
+                Collectors.teeing(
+                        Collectors.summarizingDouble(Sale::revenue),
+                        FlatGrouping.distinctCount(Sale::productId),
+                        (s, d) -> new CategoryYearSales(s.getSum(), d)
+                )
+        ));
+    }
+
+    /**
+     * Summarizes sales by (category, year), by category, by year and in total, in one pass over the sales.
+     * All the summaries come from one pass over the sales, see {@link GroupingSets#cube}.
+     *
+     * @param sales List of sales transactions to analyze
+     * @return The summaries, keyed by [category, year] (get(0, 1)), [category] (get(0)), [year] (get(1))
+     *         and the grand total (grandTotal())
+     */
+    public static GroupingSets.Result<CategoryYearSales> summarizeSalesCube(List<Sale> sales) {
+        return sales.stream().collect(GroupingSets.cube(
+                List.<Function<? super Sale, ?>>of(Sale::category, sale -> sale.date().getYear()),
+                Collectors.teeing(
+                        Collectors.summarizingDouble(Sale::revenue),
+                        FlatGrouping.distinctCount(Sale::productId),
+                        (s, d) -> new CategoryYearSales(s.getSum(), d)
+                )
+        ));
+    }
+
     public static void main(String[] args) {
         // Test data with sales across different categories and years
         List<Sale> sales = List.of(
@@ -85,6 +224,119 @@ public class MultiLevelGrouping {
         // Books 2023: 2 unique products (P3, P4), total revenue 75.0 (30.0 + 45.0)
         assert summary.get("Books").get(2023).totalRevenue() == 75.0;
         assert summary.get("Books").get(2023).uniqueProductCount() == 2;
+
+        // A product sold twice in the same category and year is one unique product (toMap used to throw here)
+        List<Sale> repeated = List.of(
+                new Sale("P1", "Electronics", 250.0, LocalDate.of(2023, 1, 15)),
+                new Sale("P1", "Electronics", 100.0, LocalDate.of(2023, 6, 1)));
+        assert summarizeSalesByCategoryAndYear(repeated).get("Electronics").get(2023).equals(new CategoryYearSales(350.0, 1));
+
+        // Approximate unique products: exact at this size
+        assert summarizeSalesByCategoryAndYearApproximate(sales, HyperLogLog.DEFAULT_PRECISION).equals(summary);
+        assert summarizeSalesByCategoryAndYearApproximate(repeated, 10).get("Electronics").get(2023).uniqueProductCount() == 1;
+
+        // Exact unique products from bitmaps of dictionary codes
+        assert summarizeSalesByCategoryAndYearExact(sales).equals(summary);
+        assert summarizeSalesByCategoryAndYearExact(repeated).equals(summarizeSalesByCategoryAndYear(repeated));
+        assert countProductsSoldInAllYears(sales, 2023, 2024) == 2;   // P1 and P3
+        assert countProductsSoldInAllYears(sales, 2024) == 2;
+        assert countProductsSoldInAllYears(sales, 2023, 2025) == 0;
+
+        // Same summary from the flat (category, year) table
+        Map<String, Map<Integer, CategoryYearSales>> flat = summarizeSalesByCategoryAndYearFlat(sales);
+        assert flat.equals(summary) && summary.equals(flat);
+        assert flat.get("Clothing").get(2023).uniqueProductCount() == 1;
+        assert flat.get("Books").get(2022) == null;
+
+        // Many sales with repeated products per cell, sequential and parallel
+        List<Sale> manySales = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            manySales.add(new Sale("P" + (i % 37), "C" + (i % 11), i % 100, LocalDate.of(2015 + i % 9, 1 + i % 12, 1)));
+        }
+        Map<String, Map<Integer, CategoryYearSales>> expected = manySales.stream().collect(Collectors.groupingBy(
+                Sale::category,
+                Collectors.groupingBy(
+                        sale -> sale.date().getYear(),
+                        Collectors.teeing(
+                                Collectors.summarizingDouble(Sale::revenue),
+                                Collectors.mapping(Sale::productId, Collectors.toSet()),
+                                (s, d) -> new CategoryYearSales(s.getSum(), d.size())))));
+        assert summarizeSalesByCategoryAndYearFlat(manySales).equals(expected);
+        assert manySales.parallelStream().collect(FlatGrouping.groupingBy(
+                Sale::category, sale -> sale.date().getYear(), FlatGrouping.distinctCount(Sale::productId)))
+                .get("C3").values().stream().mapToLong(Long::longValue).sum()
+                == expected.get("C3").values().stream().mapToLong(CategoryYearSales::uniqueProductCount).sum();
+
+        // All four summaries in one pass
+        GroupingSets.Result<CategoryYearSales> cube = summarizeSalesCube(sales);
+        System.out.println("By category: " + cube.get(0));
+        System.out.println("By year:     " + cube.get(1));
+        System.out.println("Total:       " + cube.grandTotal());
+        assert cube.get(0, 1).get(List.of("Electronics", 2023)).equals(summary.get("Electronics").get(2023));
+        assert cube.get(0).get(List.of("Electronics")).totalRevenue() == 880.0;
+        assert cube.get(0).get(List.of("Electronics")).uniqueProductCount() == 2;   // P1 in both years counts once
+        assert cube.get(1).get(List.of(2023)).uniqueProductCount() == 5;
+        assert cube.get(1).get(List.of(2024)).totalRevenue() == 315.0;
+        assert cube.grandTotal().totalRevenue() == 1070.0 && cube.grandTotal().uniqueProductCount() == 5;
+        GroupingSets.Result<Long> rollup = manySales.parallelStream().collect(GroupingSets.rollup(
+                List.<Function<? super Sale, ?>>of(Sale::category, sale -> sale.date().getYear()), Collectors.counting()));
+        assert rollup.get(0).equals(manySales.stream().collect(Collectors.groupingBy(s -> List.of(s.category()), Collectors.counting())));
+        assert rollup.grandTotal() == manySales.size();
+
+        // Downstream collectors whose combiner returns or fills its second argument (toSet adds the smaller set
+        // to the larger one): every cell keeps its own set, sequential and parallel
+        List<Function<? super Sale, ?>> categoryAndYear = List.of(Sale::category, sale -> sale.date().getYear());
+        GroupingSets.Result<Set<String>> productCube = sales.stream().collect(GroupingSets.cube(categoryAndYear,
+                Collectors.mapping(Sale::productId, Collectors.toSet())));
+        assert productCube.get(0, 1).get(List.of("Electronics", 2023)).equals(Set.of("P1", "P2"));
+        assert productCube.get(0).get(List.of("Electronics")).equals(Set.of("P1", "P2"));
+        assert productCube.get(1).get(List.of(2023)).equals(Set.of("P1", "P2", "P3", "P4", "P5"));
+        assert productCube.grandTotal().equals(Set.of("P1", "P2", "P3", "P4", "P5"));
+        for (int[] set : List.of(new int[]{0, 1}, new int[]{0}, new int[]{1})) {
+            Function<Sale, List<Object>> keyOf = sale -> Arrays.stream(set)
+                    .mapToObj(d -> (Object) categoryAndYear.get(d).apply(sale)).toList();
+            assert manySales.parallelStream().collect(GroupingSets.cube(categoryAndYear,
+                            Collectors.mapping(Sale::productId, Collectors.toSet()))).get(set)
+                    .equals(manySales.stream().collect(Collectors.groupingBy(keyOf,
+                            Collectors.mapping(Sale::productId, Collectors.toSet()))));
+        }
+        // toList keeps the encounter order in every cell, also in a parallel stream
+        GroupingSets.Result<List<String>> productLists = manySales.parallelStream().collect(GroupingSets.rollup(
+                categoryAndYear, Collectors.mapping(Sale::productId, Collectors.toList())));
+        assert productLists.get(0).equals(manySales.stream().collect(Collectors.groupingBy(
+                sale -> List.of(sale.category()), Collectors.mapping(Sale::productId, Collectors.toList()))));
+        assert productLists.grandTotal().equals(manySales.stream().map(Sale::productId).toList());
+
+        assert manySales.parallelStream().collect(Collectors.groupingBy(Sale::category, Collectors.groupingBy(
+                sale -> sale.date().getYear(), IntBitmap.distinctCount(sale -> Integer.parseInt(sale.productId().substring(1))))))
+                .get("C3").values().stream().mapToLong(Long::longValue).sum()
+                == expected.get("C3").values().stream().mapToLong(CategoryYearSales::uniqueProductCount).sum();
+
+        // Approximate unique count of many products, sequential and parallel
+        List<String> productIds = IntStream.range(0, 200_000).mapToObj(i -> "SKU-" + (i % 100_000)).toList();
+        long estimate = productIds.parallelStream().collect(HyperLogLog.distinctCount(id -> id));
+        assert Math.abs(estimate - 100_000) < 100_000 * 0.03 : estimate;  // ~0.81% standard error at precision 14
+        assert productIds.stream().collect(HyperLogLog.distinctCount(id -> id)) == estimate;  // merging is lossless
+
+        // Same summary from a binary record file: records are decoded only as the stream pulls them
+        try {
+            Path file = Files.createTempFile("sales", ".rec");
+            try {
+                RecordFile.write(file, SaleRecordFormat.INSTANCE, sales);
+                try (RecordFile<Sale> records = RecordFile.open(file, SaleRecordFormat.INSTANCE)) {
+                    assert records.size() == sales.size();
+                    assert records.stream().toList().equals(sales);
+                    assert records.stream().parallel().collect(Collectors.toList()).equals(sales);
+                    assert records.doubles(SaleRecordFormat.REVENUE).sum() == 1070.0;
+                    List<Sale> reloaded = records.stream().toList();
+                    assert summarizeSalesByCategoryAndYear(reloaded).equals(summary);
+                }
+            } finally {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
         
         System.out.println("\nTest Passed! ✅");
     }
@@ -4,9 +4,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.function.ToDoubleFunction;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
 
 public class PartitionAndSummarize {
     /**
@@ -23,10 +25,29 @@ public class PartitionAndSummarize {
     public static <T> Collector<T, ?, Map<Boolean, Stats>> partitioningAndSummarizing(
             Predicate<T> predicate,
             ToDoubleFunction<T> mapper) {
+        return partitioningAndSummarizing(predicate, mapper, Stats::new);
+    }
+
+    /**
+     * Same as {@link #partitioningAndSummarizing(Predicate, ToDoubleFunction)}, with the Stats type
+     * chosen by the caller, e.g. MomentStats::new to also get variance, skewness and kurtosis
+     * for each partition in the same pass.
+     *
+     * @param <T> The type of elements in the stream
+     * @param <S> The Stats type used for each partition
+     * @param predicate The predicate to partition elements (true/false)
+     * @param mapper Function to convert elements to double values for statistics
+     * @param statsFactory Creates an empty Stats object
+     * @return A collector that produces a Map<Boolean, S>
+     */
+    public static <T, S extends Stats> Collector<T, ?, Map<Boolean, S>> partitioningAndSummarizing(
+            Predicate<T> predicate,
+            ToDoubleFunction<T> mapper,
+            Supplier<S> statsFactory) {
         return Collectors.partitioningBy(
                 predicate,  // Partition elements into true/false based on predicate
                 Collector.of(
-                        Stats::new,  // Supplier: creates new Stats object for each partition
+                        statsFactory,  // Supplier: creates new Stats object for each partition
                         // Accumulator: converts element to double and adds to Stats
                         (stats, value) -> stats.accept(mapper.applyAsDouble(value)),
                         // Combiner: merges Stats objects when processing in parallel
@@ -37,6 +58,37 @@ public class PartitionAndSummarize {
         );
     }
 
+    /**
+     * Concurrent version of {@link #partitioningAndSummarizing}: both partitions are lock-free
+     * {@link ConcurrentStats} shared by all threads, so a parallel stream updates them directly
+     * instead of building a Stats per fork-join leaf and combining them afterwards.
+     *
+     * @param <T> The type of elements in the stream
+     * @param predicate The predicate to partition elements (true/false)
+     * @param mapper Function to convert elements to double values for statistics
+     * @return A CONCURRENT and UNORDERED collector that produces a Map<Boolean, Stats>
+     */
+    public static <T> Collector<T, ?, Map<Boolean, Stats>> concurrentPartitioningAndSummarizing(
+            Predicate<T> predicate,
+            ToDoubleFunction<T> mapper) {
+        return Collector.<T, ConcurrentStats[], Map<Boolean, Stats>>of(
+                // Supplier: [false partition, true partition]
+                () -> new ConcurrentStats[] { new ConcurrentStats(), new ConcurrentStats() },
+                // Accumulator: lock-free update of the element's partition
+                (partitions, value) -> partitions[predicate.test(value) ? 1 : 0].accept(mapper.applyAsDouble(value)),
+                // Combiner: only used if the stream does not run the collector concurrently
+                (partitions1, partitions2) -> {
+                    partitions1[0].combine(partitions2[0]);
+                    partitions1[1].combine(partitions2[1]);
+                    return partitions1;
+                },
+                // Finisher: snapshot both partitions
+                partitions -> Map.of(false, partitions[0].snapshot(), true, partitions[1].snapshot()),
+                Collector.Characteristics.CONCURRENT,
+                Collector.Characteristics.UNORDERED
+        );
+    }
+
     public static void main(String[] args) {
         // Test data: mix of integer and non-integer numbers
         List<Double> numbers = List.of(1.0, 2.5, 3.0, 4.5, 5.0, 6.5, 7.0, 8.5, 9.0, 10.5);
@@ -58,10 +110,43 @@ public class PartitionAndSummarize {
         Stats nonIntegerStats = statsByPartition.get(false); // Stats for non-integers (2.5, 4.5, 6.5, 8.5, 10.5)
 
         // Verify expected results
-        assert integerStats.getCount() == 4;      // 4 integer numbers
-        assert integerStats.getSum() == 20.0;     // 1.0 + 3.0 + 5.0 + 7.0 + 9.0 = 20.0
-        assert nonIntegerStats.getCount() == 6;   // 6 non-integer numbers
+        assert integerStats.getCount() == 5;      // 5 integer numbers
+        assert integerStats.getSum() == 25.0;     // 1.0 + 3.0 + 5.0 + 7.0 + 9.0 = 25.0
+        assert nonIntegerStats.getCount() == 5;   // 5 non-integer numbers
         assert nonIntegerStats.getSum() == 32.5;  // 2.5 + 4.5 + 6.5 + 8.5 + 10.5 = 32.5
+
+        // Batch path over a primitive column gives the same totals without boxing
+        double[] column = numbers.stream().mapToDouble(Double::doubleValue).toArray();
+        Stats columnStats = new Stats();
+        columnStats.acceptAll(column);
+        Stats streamStats = Stats.of(DoubleStream.of(column).parallel());
+        assert columnStats.getCount() == 10 && columnStats.getSum() == 57.5;
+        assert columnStats.getMin() == 1.0 && columnStats.getMax() == 10.5;
+        assert streamStats.getCount() == 10 && streamStats.getSum() == 57.5;
+
+        // Concurrent version: one shared lock-free aggregate per partition, no combine step
+        Map<Boolean, Stats> concurrentStats = numbers.parallelStream()
+                .collect(concurrentPartitioningAndSummarizing(isInteger, doubleValue));
+        assert concurrentStats.get(true).getCount() == 5 && concurrentStats.get(true).getSum() == 25.0;
+        assert concurrentStats.get(false).getCount() == 5 && concurrentStats.get(false).getSum() == 32.5;
+
+        // Higher moments in the same pass; parallel merges the partial moments
+        Map<Boolean, MomentStats> sequentialMoments = numbers.stream()
+                .collect(partitioningAndSummarizing(isInteger, doubleValue, MomentStats::new));
+        Map<Boolean, MomentStats> parallelMoments = numbers.parallelStream()
+                .collect(partitioningAndSummarizing(isInteger, doubleValue, MomentStats::new));
+        System.out.println("Moments: " + sequentialMoments);
+        MomentStats integerMoments = sequentialMoments.get(true);  // 1, 3, 5, 7, 9
+        assert integerMoments.getVariance() == 8.0;                // ((-4)^2 + (-2)^2 + 0 + 2^2 + 4^2) / 5
+        assert integerMoments.getSkewness() == 0.0;                // symmetric around 5
+        assert Math.abs(integerMoments.getKurtosis() - (-1.3)) < 1e-12;  // 5 * 544 / 40^2 - 3
+        for (boolean partition : new boolean[] { true, false }) {
+            MomentStats sequential = sequentialMoments.get(partition);
+            MomentStats parallel = parallelMoments.get(partition);
+            assert Math.abs(sequential.getVariance() - parallel.getVariance()) < 1e-12;
+            assert Math.abs(sequential.getSkewness() - parallel.getSkewness()) < 1e-12;
+            assert Math.abs(sequential.getKurtosis() - parallel.getKurtosis()) < 1e-12;
+        }
         System.out.println("\nTest Passed! ✅");
     }
 }
@@ -0,0 +1,217 @@
+package advance;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel groupingBy that never merges maps.
+ * <a/>
+ * A parallel stream with Collectors.groupingBy gives every fork-join leaf its own map and then merges the maps
+ * pairwise, so every key is hashed and combined again at each level of the merge tree. With many distinct keys
+ * those merges cost more than the grouping itself and run on fewer and fewer threads.
+ * Here the work is split by key instead (a hash partitioned, or radix, grouping):
+ * 1. Scatter: the input list is cut into chunks, and each chunk's task computes every element's key and appends
+ *    the element to one of P buffers, chosen by the key's hash. No map is touched in this phase.
+ * 2. Group: partition p's task reads buffer p of every chunk, in chunk order, into its own map.
+ *    A key only ever lands in one partition, so every map is owned by exactly one task.
+ * 3. The result is a read-only view over the P disjoint maps: a lookup hashes the key to its partition.
+ *    Nothing is copied or merged.
+ * <a/>
+ * Elements of the same key reach the downstream collector in list order (chunks are read in order, and every
+ * chunk keeps its order), so the result is the same as the sequential groupingBy, even for downstream
+ * collectors that depend on order such as toList.
+ * <a/>
+ * Scaling comes from many distinct keys: with only a few keys (e.g. a handful of subjects) most partitions
+ * are empty and a few threads do all the grouping, so the plain parallel groupingBy is as good there.
+ */
+public class PartitionedGrouping {
+    private static final int MIN_CHUNK_SIZE = 1 << 12;   // below this, a task costs more than its elements
+    private static final int TASKS_PER_CORE = 4;          // spare tasks so an uneven partition doesn't stall a core
+
+    /**
+     * Groups the elements of a list by key, like list.parallelStream().collect(groupingBy(classifier, downstream)).
+     *
+     * @param elements The elements to group; a random access list so it can be cut into chunks
+     * @param classifier Computes the key of an element; must not return null
+     * @param downstream Collector applied to the elements of each key, in list order
+     * @return Read-only map of the result per key
+     */
+    public static <T, K, A, D> Map<K, D> groupingBy(List<? extends T> elements,
+                                                    Function<? super T, ? extends K> classifier,
+                                                    Collector<? super T, A, D> downstream) {
+        return groupingBy(elements, classifier, downstream, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * @see #groupingBy(List, Function, Collector)
+     */
+    public static <T, K> Map<K, List<T>> groupingBy(List<? extends T> elements, Function<? super T, ? extends K> classifier) {
+        return groupingBy(elements, classifier, Collectors.toList());
+    }
+
+    /**
+     * @param parallelism Number of threads to plan the chunks and partitions for
+     */
+    static <T, K, A, D> Map<K, D> groupingBy(List<? extends T> elements,
+                                             Function<? super T, ? extends K> classifier,
+                                             Collector<? super T, A, D> downstream,
+                                             int parallelism) {
+        int size = elements.size();
+        int tasks = Math.max(1, parallelism) * TASKS_PER_CORE;
+        int chunkCount = Math.max(1, Math.min(tasks, size / MIN_CHUNK_SIZE));
+        int partitionBits = chunkCount == 1 ? 0 : 32 - Integer.numberOfLeadingZeros(tasks - 1);  // P = 2^bits >= tasks
+        int partitionCount = 1 << partitionBits;
+
+        // 1. Scatter: buffers[chunk][partition] holds (key, element) pairs, in list order
+        Buffer[][] buffers = new Buffer[chunkCount][partitionCount];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            Buffer[] own = buffers[chunk];
+            for (int p = 0; p < partitionCount; p++) {
+                own[p] = new Buffer();
+            }
+            int from = (int) ((long) size * chunk / chunkCount);
+            int to = (int) ((long) size * (chunk + 1) / chunkCount);
+            for (int i = from; i < to; i++) {
+                T element = elements.get(i);
+                K key = Objects.requireNonNull(classifier.apply(element), "element cannot be mapped to a null key");
+                own[partitionOf(key, partitionBits)].add(key, element);
+            }
+        });
+
+        // 2. Group: every partition is grouped by its own task into its own map
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Map<K, D>[] partitions = new Map[partitionCount];
+        IntStream.range(0, partitionCount).parallel()
+                .forEach(p -> partitions[p] = groupPartition(buffers, p, downstream));
+
+        // 3. The disjoint union of the partitions
+        return new PartitionedMap<>(partitions, partitionBits);
+    }
+
+    /**
+     * Groups partition p of every chunk, in chunk order, into a new map.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T, K, A, D> Map<K, D> groupPartition(Buffer[][] buffers, int p, Collector<? super T, A, D> downstream) {
+        Supplier<A> supplier = downstream.supplier();
+        BiConsumer<A, ? super T> accumulator = downstream.accumulator();
+        Map<K, Object> containers = new HashMap<>();
+        for (Buffer[] chunk : buffers) {
+            Buffer buffer = chunk[p];
+            for (int i = 0; i < buffer.size; i += 2) {
+                A container = (A) containers.computeIfAbsent((K) buffer.items[i], key -> supplier.get());
+                accumulator.accept(container, (T) buffer.items[i + 1]);
+            }
+            chunk[p] = null;  // let the buffer go as soon as it is grouped
+        }
+        if (!downstream.characteristics().contains(Collector.Characteristics.IDENTITY_FINISH)) {
+            Function<A, D> finisher = downstream.finisher();
+            containers.replaceAll((key, container) -> finisher.apply((A) container));
+        }
+        return (Map<K, D>) containers;
+    }
+
+    /**
+     * Partition of a key: the top bits of its scrambled hash. HashMap uses the low bits of the hash,
+     * so the keys of one partition still spread over the whole map.
+     */
+    private static int partitionOf(Object key, int partitionBits) {
+        return partitionBits == 0 ? 0 : (key.hashCode() * 0x9E3779B9) >>> (32 - partitionBits);
+    }
+
+    /**
+     * Growable array of (key, element) pairs, stored side by side.
+     */
+    private static final class Buffer {
+        Object[] items = new Object[16];
+        int size;
+
+        void add(Object key, Object element) {
+            if (size + 2 > items.length) {
+                items = Arrays.copyOf(items, items.length * 2);
+            }
+            items[size++] = key;
+            items[size++] = element;
+        }
+    }
+
+    /**
+     * Read-only map over disjoint partition maps.
+     */
+    private static final class PartitionedMap<K, D> extends AbstractMap<K, D> {
+        private final Map<K, D>[] partitions;
+        private final int partitionBits;
+        private final int size;
+
+        PartitionedMap(Map<K, D>[] partitions, int partitionBits) {
+            this.partitions = partitions;
+            this.partitionBits = partitionBits;
+            this.size = Arrays.stream(partitions).mapToInt(Map::size).sum();
+        }
+
+        @Override
+        public D get(Object key) {
+            return key == null ? null : partitions[partitionOf(key, partitionBits)].get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key != null && partitions[partitionOf(key, partitionBits)].containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Entry<K, D>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Entry<K, D>> iterator() {
+                    return new Iterator<>() {
+                        private int partition;
+                        private Iterator<Entry<K, D>> current = partitions[0].entrySet().iterator();
+
+                        @Override
+                        public boolean hasNext() {
+                            while (!current.hasNext() && partition + 1 < partitions.length) {
+                                current = partitions[++partition].entrySet().iterator();
+                            }
+                            return current.hasNext();
+                        }
+
+                        @Override
+                        public Entry<K, D> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<K, D> entry = current.next();
+                            return new SimpleImmutableEntry<>(entry.getKey(), entry.getValue());  // read-only
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
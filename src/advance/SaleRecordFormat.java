@@ -0,0 +1,54 @@
+package advance;
+
+import advance.MultiLevelGrouping.Sale;
+import beginner.RecordFile;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+
+/**
+ * {@link RecordFile} layout of a {@link Sale}, 24 bytes per record:
+ * - offset 0: product id as dictionary code
+ * - offset 4: category as dictionary code
+ * - offset 8: date as int epoch day
+ * - offset 12: padding, so the double below is 8-byte aligned
+ * - offset 16: revenue as double
+ */
+public class SaleRecordFormat implements RecordFile.Format<Sale> {
+    public static final SaleRecordFormat INSTANCE = new SaleRecordFormat();
+
+    public static final int PRODUCT_ID = 0;
+    public static final int CATEGORY = 4;
+    public static final int EPOCH_DAY = 8;
+    public static final int REVENUE = 16;
+
+    private SaleRecordFormat() {}
+
+    @Override
+    public int typeId() {
+        return 2;
+    }
+
+    @Override
+    public int width() {
+        return 24;
+    }
+
+    @Override
+    public void write(Sale sale, ByteBuffer out, RecordFile.Strings strings) {
+        out.putInt(strings.encode(sale.productId()));
+        out.putInt(strings.encode(sale.category()));
+        out.putInt(Math.toIntExact(sale.date().toEpochDay()));
+        out.putInt(0);
+        out.putDouble(sale.revenue());
+    }
+
+    @Override
+    public Sale read(RecordFile<Sale> file, long index) {
+        return new Sale(
+                file.getString(index, PRODUCT_ID),
+                file.getString(index, CATEGORY),
+                file.getDouble(index, REVENUE),
+                LocalDate.ofEpochDay(file.getInt(index, EPOCH_DAY)));
+    }
+}
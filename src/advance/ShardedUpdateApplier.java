@@ -0,0 +1,550 @@
+package advance;
+
+import advance.ConcurrentMapWithMerge.KeyLog;
+import advance.ConcurrentMapWithMerge.Operation;
+import advance.ConcurrentMapWithMerge.Update;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Applies updates coming from many threads to the merged key/value state of {@link ConcurrentMapWithMerge},
+ * without the threads contending on the keys.
+ * <a/>
+ * With one shared ConcurrentMap, every thread updating a hot key fights for the same bin, and an APPEND copies
+ * the whole value while holding it. Here the keys are split into N shards, and each shard is owned by a single
+ * writer:
+ * - Producers only enqueue: {@link #submit} hashes the key to its shard and puts the update in the shard's
+ *   bounded queue, blocking when the queue is full (backpressure instead of unbounded memory)
+ * - Each shard's virtual thread drains its queue in batches and applies SET / APPEND to a plain HashMap of
+ *   {@link KeyLog}s that no other thread touches: no CAS, no lock per update, and an APPEND copies no chars
+ * - Values are only built as Strings when read, by {@link #snapshot()}
+ * <a/>
+ * Updates of one key are applied in the order they entered its shard's queue, so the updates a thread submits
+ * for a key are applied in the order it submitted them.
+ * <a/>
+ * Each shard has an enqueue lock, held by a submit only while it checks the shard is open and offers to the queue;
+ * a submit waiting for room releases it until the shard's thread has drained the queue. Submits to different
+ * shards never share a lock. {@link #snapshot()} and {@link #close()} take every shard's lock, in index order,
+ * and never wait while holding them:
+ * - A snapshot reads how many updates each shard has been given, and asks the shard to add its state once it has
+ *   applied that many. Those counts form one cut across all the shards: no update can be enqueued after the cut
+ *   on one shard and before it on another
+ * - Close marks the applier closed, so nothing is enqueued after it, then queues a STOP behind everything
+ * <a/>
+ * If applying an update fails, the shard is failed: its queued work is dropped (a pending snapshot fails instead
+ * of waiting forever), and every later submit to it and every later snapshot throws.
+ */
+public class ShardedUpdateApplier implements AutoCloseable {
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * Asks a shard to add its current state to the snapshot.
+     *
+     * @param failure The first failure of a shard that could not add its state
+     */
+    private record SnapshotRequest(ConcurrentMap<String, String> result, CountDownLatch done,
+                                   AtomicReference<Throwable> failure) {}
+
+    /**
+     * A snapshot request, to be served once the shard has applied the given number of updates.
+     */
+    private record Marker(long position, SnapshotRequest request) {}
+
+    private static final Object STOP = new Object();
+    private static final Object WAKE_UP = new Object();  // makes an idle shard thread look at its markers
+
+    private final Shard[] shards;
+    private volatile boolean closed;  // only set with every shard's enqueue lock held
+
+    public ShardedUpdateApplier() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param shardCount Number of shards, each with its own queue and virtual thread
+     * @param queueCapacity Number of pending items per shard before submitters block
+     */
+    public ShardedUpdateApplier(int shardCount, int queueCapacity) {
+        if (shardCount <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Shard count and queue capacity must be positive: "
+                    + shardCount + ", " + queueCapacity);
+        }
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(queueCapacity);
+            shards[i].thread = Thread.ofVirtual().name("update-shard-" + i).start(shards[i]::run);
+        }
+    }
+
+    /**
+     * Queues the update on its key's shard, waiting while the shard's queue is full.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the applier is closed or the key's shard failed
+     */
+    public void submit(Update update) throws InterruptedException {
+        Shard shard = shardOf(Objects.requireNonNull(update.key(), "key"));
+        checked(update);
+        shard.enqueueLock.lockInterruptibly();
+        try {
+            enqueue(shard, update, Long.MAX_VALUE);
+        } finally {
+            shard.enqueueLock.unlock();
+        }
+    }
+
+    /**
+     * Queues the update on its key's shard, waiting at most the timeout while the shard's queue is full.
+     *
+     * @return False if the queue stayed full for the whole timeout; the update was not queued
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the applier is closed or the key's shard failed
+     */
+    public boolean trySubmit(Update update, long timeout, TimeUnit unit) throws InterruptedException {
+        Shard shard = shardOf(Objects.requireNonNull(update.key(), "key"));
+        checked(update);
+        long start = System.nanoTime();
+        if (!shard.enqueueLock.tryLock(timeout, unit)) {
+            return false;
+        }
+        try {
+            return enqueue(shard, update, Math.max(0, unit.toNanos(timeout) - (System.nanoTime() - start)));
+        } finally {
+            shard.enqueueLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the whole state at one point in time: with every shard's enqueue lock held, it takes the number of
+     * updates queued on each shard. So the snapshot holds exactly the updates enqueued before that point, on all
+     * the shards: every update whose submit returned before this call, and none that was submitted after an
+     * update it misses. Each shard adds its state once it has applied its count of updates.
+     *
+     * @return A copy of the state, in the shape of {@link ConcurrentMapWithMerge#processUpdates(List)}
+     * @throws InterruptedException if interrupted while waiting for the shards
+     * @throws IllegalStateException if the applier is closed or a shard failed
+     */
+    public ConcurrentMap<String, String> snapshot() throws InterruptedException {
+        SnapshotRequest request = new SnapshotRequest(new ConcurrentHashMap<>(), new CountDownLatch(shards.length),
+                new AtomicReference<>());
+        int locked = 0;
+        try {
+            for (; locked < shards.length; locked++) {
+                shards[locked].enqueueLock.lockInterruptibly();
+            }
+            for (Shard shard : shards) {
+                checkOpen(shard);
+            }
+            for (Shard shard : shards) {
+                shard.markers.add(new Marker(shard.enqueued, request));
+                // No room means updates before the marker are still queued: the shard thread will get to it
+                shard.queue.offer(WAKE_UP);
+            }
+        } finally {
+            unlock(locked);
+        }
+        request.done().await();
+        Throwable failure = request.failure().get();
+        if (failure != null) {
+            throw new IllegalStateException("Shard failed: " + failure, failure);
+        }
+        return request.result();
+    }
+
+    /**
+     * Applies everything already queued, then stops the shard threads.
+     */
+    @Override
+    public void close() {
+        int locked = 0;
+        try {
+            for (; locked < shards.length; locked++) {
+                shards[locked].enqueueLock.lock();
+            }
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Shard shard : shards) {
+                shard.notFull.signalAll();  // submitters waiting for room give up
+            }
+        } finally {
+            unlock(locked);
+        }
+        boolean interrupted = false;
+        for (Shard shard : shards) {
+            while (true) {
+                try {
+                    shard.queue.put(STOP);  // nothing is enqueued after closed is set, so the queue drains
+                    shard.thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Shard shardOf(String key) {
+        int h = key.hashCode() * 0x9E3779B9;  // scramble, so similar keys spread over the shards
+        return shards[(int) (((h >>> 1) * (long) shards.length) >>> 31)];
+    }
+
+    /**
+     * Puts the update on the shard's queue, waiting while the queue is full. Called with the shard's enqueue lock
+     * held; waiting releases it, so a snapshot or close never waits behind a submit blocked on a full queue.
+     *
+     * @param nanos Longest time to wait
+     * @return False if the queue was still full after waiting the longest time
+     */
+    private boolean enqueue(Shard shard, Update update, long nanos) throws InterruptedException {
+        while (true) {
+            checkOpen(shard);
+            if (shard.queue.offer(update)) {
+                shard.enqueued++;
+                return true;
+            }
+            shard.waiting++;
+            try {
+                // Offer again now that the shard thread sees a waiter: it signals after every drain from here on
+                if (shard.queue.offer(update)) {
+                    shard.enqueued++;
+                    return true;
+                }
+                if (nanos <= 0) {
+                    return false;
+                }
+                if (nanos == Long.MAX_VALUE) {
+                    shard.notFull.await();
+                } else {
+                    nanos = shard.notFull.awaitNanos(nanos);
+                }
+            } finally {
+                shard.waiting--;
+            }
+        }
+    }
+
+    /**
+     * Releases the enqueue locks of the first shards.
+     */
+    private void unlock(int lockedShards) {
+        for (int i = lockedShards - 1; i >= 0; i--) {
+            shards[i].enqueueLock.unlock();
+        }
+    }
+
+    /**
+     * Called with the shard's enqueue lock held.
+     */
+    private void checkOpen(Shard shard) {
+        if (closed) {
+            throw new IllegalStateException("Applier is closed");
+        }
+        Throwable failure = shard.failure;
+        if (failure != null) {
+            throw new IllegalStateException("Shard failed: " + failure, failure);
+        }
+    }
+
+    private static Update checked(Update update) {
+        Objects.requireNonNull(update.value(), "value");
+        Objects.requireNonNull(update.op(), "op");
+        return update;
+    }
+
+    /**
+     * A queue and the state of the keys it owns. Only the shard's thread reads the state.
+     */
+    private static final class Shard {
+        final BlockingQueue<Object> queue;
+        final ReentrantLock enqueueLock = new ReentrantLock();
+        final Condition notFull = enqueueLock.newCondition();
+        volatile int waiting;  // threads waiting for room; only changed with enqueueLock held
+        long enqueued;         // updates queued so far; guarded by enqueueLock
+        final Queue<Marker> markers = new ConcurrentLinkedQueue<>();  // in increasing position
+        final Map<String, KeyLog> state = new HashMap<>();
+        long applied;          // updates taken from the queue so far; only the shard's thread uses it
+        Thread thread;
+        volatile Throwable failure;  // set if applying an update failed; the state can no longer be trusted
+
+        Shard(int queueCapacity) {
+            queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        void run() {
+            List<Object> batch = new ArrayList<>(MAX_BATCH);
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    continue;  // only close() stops a shard, so everything queued gets applied
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);  // one lock round trip for the whole batch
+                if (waiting > 0) {
+                    enqueueLock.lock();
+                    try {
+                        notFull.signalAll();
+                    } finally {
+                        enqueueLock.unlock();
+                    }
+                }
+                for (Object item : batch) {
+                    if (item instanceof Update update) {
+                        applied++;
+                        if (failure == null) {  // once failed, keep draining so nobody waits, but apply nothing
+                            try {
+                                state.computeIfAbsent(update.key(), key -> new KeyLog())
+                                        .apply(update.op(), update.value());
+                            } catch (RuntimeException | Error e) {
+                                failure = e;
+                            }
+                        }
+                    }
+                    serveMarkers();
+                    if (item == STOP) {
+                        return;
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        /**
+         * Serves the snapshot requests whose updates have all been applied.
+         */
+        private void serveMarkers() {
+            Marker marker;
+            while ((marker = markers.peek()) != null && marker.position() <= applied) {
+                markers.poll();
+                SnapshotRequest request = marker.request();
+                if (failure == null) {
+                    try {
+                        addTo(request);
+                        continue;
+                    } catch (RuntimeException | Error e) {
+                        failure = e;
+                    }
+                }
+                request.failure().compareAndSet(null, failure);
+                request.done().countDown();
+            }
+        }
+
+        /**
+         * Builds every value once and keeps it as the key's only update, so the next snapshot starts from it.
+         */
+        private void addTo(SnapshotRequest request) {
+            for (Map.Entry<String, KeyLog> entry : state.entrySet()) {
+                String value = entry.getValue().materialize();
+                request.result().put(entry.getKey(), value);
+                entry.setValue(new KeyLog().apply(Operation.SET, value));
+            }
+            request.done().countDown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // One producer: the same result as processUpdates, with a queue small enough to block the producer
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            updates.add(new Update("key" + (i % 1000), "v" + i, i % 97 == 0 ? Operation.SET : Operation.APPEND));
+        }
+        try (ShardedUpdateApplier applier = new ShardedUpdateApplier(4, 64)) {
+            for (Update update : updates) {
+                applier.submit(update);
+            }
+            assert applier.snapshot().equals(ConcurrentMapWithMerge.processUpdates(updates));
+        }
+
+        // Many producers on virtual threads, all appending to a few hot keys, with snapshots while they run
+        int producers = 64;
+        int perProducer = 5_000;
+        try (ShardedUpdateApplier applier = new ShardedUpdateApplier(8, 256)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                threads.add(Thread.ofVirtual().start(() -> {
+                    try {
+                        for (int i = 0; i < perProducer; i++) {
+                            applier.submit(new Update("hot" + (i % 4), producer + ":" + i, Operation.APPEND));
+                            applier.submit(new Update("own" + producer, String.valueOf(i), Operation.APPEND));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+            }
+            ConcurrentMap<String, String> during = applier.snapshot();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            ConcurrentMap<String, String> after = applier.snapshot();
+
+            assert after.size() == 4 + producers;
+            StringBuilder chain = new StringBuilder();
+            for (int i = 0; i < perProducer; i++) {
+                chain.append(i == 0 ? "" : ",").append(i);
+            }
+            for (int p = 0; p < producers; p++) {
+                assert after.get("own" + p).contentEquals(chain);
+                // A snapshot taken while producers ran holds a prefix of every key's updates
+                String partial = during.get("own" + p);
+                assert partial == null || chain.toString().startsWith(partial + ",") || chain.toString().equals(partial);
+            }
+            // Each producer's appends to a hot key are applied in the order it submitted them
+            for (int k = 0; k < 4; k++) {
+                String[] values = after.get("hot" + k).split(",");
+                assert values.length == producers * perProducer / 4;
+                int[] last = new int[producers];
+                Arrays.fill(last, -1);
+                for (String value : values) {
+                    int separator = value.indexOf(':');
+                    int producer = Integer.parseInt(value, 0, separator, 10);
+                    int i = Integer.parseInt(value, separator + 1, value.length(), 10);
+                    assert i > last[producer];
+                    last[producer] = i;
+                }
+            }
+        }
+
+        // One cut across shards: a producer appends i to "first" and then to "second", so every snapshot must
+        // show "first" at most one update ahead. The keys are picked so that "second" is on a lower shard, which
+        // the request reaches first. Small queues make the puts block, so the producer runs between them
+        try (ShardedUpdateApplier applier = new ShardedUpdateApplier(8, 4)) {
+            List<Shard> order = Arrays.asList(applier.shards);
+            String second = "k0";
+            String first = null;
+            for (int i = 1; first == null; i++) {
+                if (order.indexOf(applier.shardOf("k" + i)) > order.indexOf(applier.shardOf(second))) {
+                    first = "k" + i;
+                }
+            }
+            String firstKey = first;
+            int rounds = 200_000;
+            Thread producer = Thread.ofPlatform().start(() -> {  // preempted, so it interleaves with the snapshots
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        applier.submit(new Update(firstKey, "x", Operation.APPEND));
+                        applier.submit(new Update(second, "x", Operation.APPEND));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            while (producer.isAlive()) {
+                ConcurrentMap<String, String> snapshot = applier.snapshot();
+                // APPEND joins with ',', so n values of "x" are 2n - 1 chars
+                int ahead = (snapshot.getOrDefault(firstKey, "").length() + 1) / 2
+                        - (snapshot.getOrDefault(second, "").length() + 1) / 2;
+                assert ahead == 0 || ahead == 1 : ahead;
+            }
+        }
+
+        // Backpressure on one shard holds up nobody else: its shard thread is stalled and a submitter waits for
+        // room in its full queue, and still a snapshot gets its counts and another shard takes updates
+        try (ShardedUpdateApplier applier = new ShardedUpdateApplier(2, 4)) {
+            Shard stalled = applier.shards[0];
+            String hotKey = null;
+            String coldKey = null;
+            for (int i = 0; hotKey == null || coldKey == null; i++) {
+                if (applier.shardOf("k" + i) == stalled) {
+                    hotKey = "k" + i;
+                } else {
+                    coldKey = "k" + i;
+                }
+            }
+            applier.submit(new Update(hotKey, "v", Operation.SET));
+            CountDownLatch release = new CountDownLatch(1);
+            @SuppressWarnings("serial")
+            ConcurrentMap<String, String> blocking = new ConcurrentHashMap<>() {
+                @Override
+                public String put(String key, String value) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return super.put(key, value);
+                }
+            };
+            stalled.enqueueLock.lock();
+            try {
+                stalled.markers.add(new Marker(stalled.enqueued,
+                        new SnapshotRequest(blocking, new CountDownLatch(1), new AtomicReference<>())));
+                stalled.queue.offer(WAKE_UP);
+            } finally {
+                stalled.enqueueLock.unlock();
+            }
+            while (!stalled.queue.isEmpty() || !stalled.markers.isEmpty()) {
+                Thread.sleep(1);  // until the shard thread has taken the marker and blocks on it
+            }
+            String hot = hotKey;
+            Thread producer = Thread.ofVirtual().start(() -> {
+                try {
+                    for (int i = 0; i < 10; i++) {
+                        applier.submit(new Update(hot, String.valueOf(i), Operation.APPEND));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            while (stalled.waiting == 0) {
+                Thread.sleep(1);
+            }
+            AtomicReference<ConcurrentMap<String, String>> snapshot = new AtomicReference<>();
+            Thread reader = Thread.ofVirtual().start(() -> {
+                try {
+                    snapshot.set(applier.snapshot());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            while (stalled.markers.isEmpty()) {  // the stalling marker was taken off before it blocked
+                Thread.sleep(1);
+            }
+            assert applier.trySubmit(new Update(coldKey, "cold", Operation.SET), 5, TimeUnit.SECONDS);
+            release.countDown();
+            producer.join();
+            reader.join();
+            // Taken while the producer waited: the SET and the 4 updates that fit in the queue
+            assert snapshot.get().get(hotKey).equals("v,0,1,2,3") : snapshot.get();
+            assert !snapshot.get().containsKey(coldKey);
+            assert applier.snapshot().get(hotKey).equals("v,0,1,2,3,4,5,6,7,8,9");
+        }
+
+        // Nothing is accepted once closed, so nothing can be queued behind a shard's STOP
+        ShardedUpdateApplier closed = new ShardedUpdateApplier(2, 16);
+        closed.close();
+        for (Runnable call : List.<Runnable>of(
+                () -> { try { closed.submit(new Update("k", "v", Operation.SET)); } catch (InterruptedException e) { throw new AssertionError(e); } },
+                () -> { try { closed.snapshot(); } catch (InterruptedException e) { throw new AssertionError(e); } })) {
+            try {
+                call.run();
+                assert false : "accepted after close";
+            } catch (IllegalStateException expected) {
+            }
+        }
+        System.out.println("\nTest Passed! ✅");
+    }
+}
@@ -1,8 +1,14 @@
 package advance;
 
+import java.nio.DoubleBuffer;
+import java.util.Objects;
+import java.util.stream.DoubleStream;
+
 // Shared Stats class
 @SuppressWarnings("all")
 public class Stats {
+    private static final int BLOCK_SIZE = 1024;  // values copied at a time from a direct DoubleBuffer
+
     private long count;
     private double sum;
     private double min = Double.MAX_VALUE;
@@ -15,6 +21,82 @@ public class Stats {
         max = Math.max(max, value);
     }
 
+    public Stats() {
+    }
+
+    /**
+     * Creates Stats from already computed totals, e.g. a snapshot of {@link ConcurrentStats}.
+     */
+    Stats(long count, double sum, double min, double max) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Accepts every value of the array, same result as calling {@link #accept(double)} for each one
+     * (the sum may differ in the last bits because it is added in a different order).
+     */
+    public void acceptAll(double[] values) {
+        acceptAll(values, 0, values.length);
+    }
+
+    /**
+     * Accepts values[from, to) in one tight loop over the primitive array.
+     * The loop keeps four independent sum/min/max lanes, so consecutive additions do not wait on
+     * each other and the JIT can keep the lanes in registers (or SIMD registers) instead of
+     * updating the fields once per value.
+     */
+    public void acceptAll(double[] values, int from, int to) {
+        Objects.checkFromToIndex(from, to, values.length);
+        double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        double min0 = min, min1 = min, min2 = min, min3 = min;
+        double max0 = max, max1 = max, max2 = max, max3 = max;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            double v0 = values[i], v1 = values[i + 1], v2 = values[i + 2], v3 = values[i + 3];
+            sum0 += v0; sum1 += v1; sum2 += v2; sum3 += v3;
+            min0 = Math.min(min0, v0); min1 = Math.min(min1, v1); min2 = Math.min(min2, v2); min3 = Math.min(min3, v3);
+            max0 = Math.max(max0, v0); max1 = Math.max(max1, v1); max2 = Math.max(max2, v2); max3 = Math.max(max3, v3);
+        }
+        for (; i < to; i++) {  // remaining 0-3 values
+            sum0 += values[i];
+            min0 = Math.min(min0, values[i]);
+            max0 = Math.max(max0, values[i]);
+        }
+        count += to - from;
+        sum += (sum0 + sum1) + (sum2 + sum3);
+        min = Math.min(Math.min(min0, min1), Math.min(min2, min3));
+        max = Math.max(Math.max(max0, max1), Math.max(max2, max3));
+    }
+
+    /**
+     * Accepts the remaining values of the buffer (position to limit) without changing its position.
+     * Heap buffers are read straight from their backing array; other buffers are copied in small blocks.
+     */
+    public void acceptAll(DoubleBuffer values) {
+        if (values.hasArray()) {
+            int offset = values.arrayOffset();
+            acceptAll(values.array(), offset + values.position(), offset + values.limit());
+            return;
+        }
+        double[] block = new double[Math.min(BLOCK_SIZE, values.remaining())];
+        for (int position = values.position(); position < values.limit(); position += block.length) {
+            int length = Math.min(block.length, values.limit() - position);
+            values.get(position, block, 0, length);
+            acceptAll(block, 0, length);
+        }
+    }
+
+    /**
+     * Summarizes a primitive DoubleStream without boxing any value.
+     * Works on parallel streams: each partition gets its own Stats, merged with {@link #combine}.
+     */
+    public static Stats of(DoubleStream values) {
+        return values.collect(Stats::new, Stats::accept, Stats::combine);
+    }
+
     public void combine(Stats other) {
         count += other.count;
         sum += other.sum;
@@ -1,8 +1,20 @@
 package beginner;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.stream.Collector;
 import java.util.stream.Stream;
 
@@ -12,6 +24,19 @@ import java.util.stream.Stream;
  */
 public class FileManager {
 
+    // Smallest chunk worth handing to its own task; below this the split overhead dominates
+    private static final long MIN_CHUNK_SIZE = 1L << 20;     // 1 MB
+    // Largest chunk handed to one task, so big files still split into many tasks
+    private static final long MAX_CHUNK_SIZE = 1L << 28;     // 256 MB
+    // A chunk is mapped one window at a time, so a chunk of any size (e.g. a file without '\n') can be read
+    private static final long MAP_WINDOW_SIZE = 1L << 26;    // 64 MB
+    // Chars decoded at a time by each task; the heap used per task does not grow with the chunk
+    private static final int DECODE_BUFFER_SIZE = 1 << 16;   // 64K chars
+    // Longest line that fits in a String
+    private static final int MAX_LINE_LENGTH = Integer.MAX_VALUE - 8;
+    // Tasks per core, so a chunk that is slower to process does not leave the other cores idle
+    private static final int CHUNKS_PER_CORE = 4;
+
     /**
      * Reads a file and processes its contents using a custom collector.
      *
@@ -23,12 +48,7 @@ public class FileManager {
      */
     public static <R> R readFile( String fileName, Collector<String, ?, R> collector) {
         try {
-            Path projectRoot = Paths.get(System.getProperty("user.dir")); // get project root directory
-            Path filePath = projectRoot.resolve(Paths.get(fileName));     // get file path
-
-            if(!Files.exists(filePath)) {
-                throw new RuntimeException("File not found: " + filePath.toAbsolutePath());
-            }
+            Path filePath = resolve(fileName);
 
             try (Stream<String> lines = Files.lines(filePath)) {
                 return lines.collect(collector);
@@ -37,4 +57,193 @@ public class FileManager {
             throw new RuntimeException("Error reading file = " + e.getMessage(), e);
         }
     }
+
+    /**
+     * Reads a file in parallel and processes its contents using a custom collector.
+     * <a/>
+     * The file is memory-mapped and split into newline-aligned chunks, roughly
+     * {@value #CHUNKS_PER_CORE} per core. Each chunk is decoded and its lines are fed to a
+     * fresh result container of the collector on its own fork-join task, and the partial
+     * containers are then merged with the collector's combiner in file order.
+     * A task decodes its chunk through a small fixed buffer, so the memory it uses depends on
+     * the longest line, not on the size of the chunk.
+     * This gives the same result as {@link #readFile(String, Collector)} for any collector that
+     * gives the same result on a sequential and on a parallel stream.
+     * <a/>
+     * Chunk boundaries are always placed right after a '\n' byte. In UTF-8 that byte can never be
+     * part of a multibyte character, so every chunk can be decoded on its own.
+     * Lines are split on "\n", "\r" and "\r\n", the same as {@link Files#lines(Path)}.
+     *
+     * @param <A> The mutable result container type of the collector
+     * @param <R> The final result type of the collector
+     * @param fileName The name of the file to read
+     * @param collector The collector to use for processing the file contents
+     * @return The result of applying the collector to the file contents
+     * @throws RuntimeException if there's an error reading the file
+     */
+    public static <A, R> R readFileParallel(String fileName, Collector<String, A, R> collector) {
+        try {
+            Path filePath = resolve(fileName);
+
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                List<long[]> chunks = splitIntoChunks(channel);
+
+                A container = chunks.parallelStream()
+                        // Each task maps, decodes and accumulates its own chunk into its own container
+                        .map(chunk -> {
+                            A partial = collector.supplier().get();
+                            forEachLine(channel, chunk[0], chunk[1], partial, collector.accumulator());
+                            return partial;
+                        })
+                        // reduce keeps the encounter order of the chunks, so ordered collectors stay correct
+                        .reduce(collector.combiner())
+                        .orElseGet(collector.supplier());
+
+                return collector.characteristics().contains(Collector.Characteristics.IDENTITY_FINISH)
+                        ? castIdentity(container)
+                        : collector.finisher().apply(container);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Error reading file = " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Resolves a file name against the project root and checks that the file exists.
+     */
+    private static Path resolve(String fileName) {
+        Path projectRoot = Paths.get(System.getProperty("user.dir")); // get project root directory
+        Path filePath = projectRoot.resolve(Paths.get(fileName));     // get file path
+
+        if(!Files.exists(filePath)) {
+            throw new RuntimeException("File not found: " + filePath.toAbsolutePath());
+        }
+        return filePath;
+    }
+
+    /**
+     * Splits the file into [start, end) byte ranges where every range but the last ends right after a '\n'.
+     * Tentative boundaries are spread evenly and then moved forward to the next newline.
+     */
+    private static List<long[]> splitIntoChunks(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int cores = Runtime.getRuntime().availableProcessors();
+        long target = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / ((long) cores * CHUNKS_PER_CORE) + 1));
+
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long start = 0;
+        while (start < size) {
+            long end = nextLineStart(channel, Math.min(size, start + target), size, probe);
+            chunks.add(new long[] { start, end });
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the position right after the first '\n' at or after {@code from}, or {@code size} if there is none.
+     */
+    private static long nextLineStart(FileChannel channel, long from, long size, ByteBuffer probe) throws IOException {
+        long position = from;
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Maps one chunk a window at a time, decodes it as UTF-8 into a small buffer and hands every line to the
+     * accumulator. The start of a line that doesn't end in the buffer is carried over to the next decoding step,
+     * and the bytes of a character cut by the end of a window are decoded again with the next window.
+     */
+    private static <A> void forEachLine(FileChannel channel, long start, long end,
+                                        A container, BiConsumer<A, String> accumulator) {
+        try {
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+            CharBuffer chars = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+            StringBuilder carry = new StringBuilder();
+            boolean afterCr = false;
+            long position = start;
+            boolean endOfInput;
+            do {
+                long window = Math.min(MAP_WINDOW_SIZE, end - position);
+                endOfInput = position + window == end;
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+                CoderResult result;
+                do {
+                    result = decoder.decode(bytes, chars, endOfInput);
+                    if (result.isError()) {
+                        result.throwException();
+                    }
+                    afterCr = acceptLines(chars.flip(), carry, afterCr, container, accumulator);
+                    chars.clear();
+                } while (result.isOverflow());
+                position += bytes.position();
+            } while (!endOfInput);
+            decoder.flush(chars);
+            acceptLines(chars.flip(), carry, afterCr, container, accumulator);
+            if (!carry.isEmpty()) {
+                accumulator.accept(container, carry.toString());  // last line without terminator
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading chunk [" + start + ", " + end + ") = " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Hands every line that ends in the decoded chars to the accumulator, and appends the rest to the carry.
+     *
+     * @param afterCr Whether the previous chars ended with a '\r', so a '\n' first is part of its terminator
+     * @return Whether these chars end with a '\r'
+     */
+    private static <A> boolean acceptLines(CharBuffer chars, StringBuilder carry, boolean afterCr,
+                                           A container, BiConsumer<A, String> accumulator) {
+        char[] array = chars.array();
+        int length = chars.limit();
+        if (length == 0) {
+            return afterCr;
+        }
+        int lineStart = afterCr && array[0] == '\n' ? 1 : 0;  // "\r\n" is a single line terminator
+        for (int i = lineStart; i < length; i++) {
+            char c = array[i];
+            if (c == '\n' || c == '\r') {
+                if (carry.isEmpty()) {
+                    accumulator.accept(container, new String(array, lineStart, i - lineStart));
+                } else {
+                    appendToLine(carry, array, lineStart, i);
+                    accumulator.accept(container, carry.toString());
+                    carry.setLength(0);
+                }
+                if (c == '\r' && i + 1 < length && array[i + 1] == '\n') {
+                    i++;
+                }
+                lineStart = i + 1;
+            }
+        }
+        appendToLine(carry, array, lineStart, length);
+        return array[length - 1] == '\r';
+    }
+
+    private static void appendToLine(StringBuilder line, char[] chars, int from, int to) {
+        if (to - from > MAX_LINE_LENGTH - line.length()) {
+            throw new IllegalStateException("Line longer than " + MAX_LINE_LENGTH + " chars, it can't be a String");
+        }
+        line.append(chars, from, to - from);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <A, R> R castIdentity(A container) {
+        return (R) container;
+    }
 }
@@ -1,6 +1,6 @@
 package beginner;
 
-import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Collector;
@@ -28,22 +28,88 @@ public class FileWordFreqCollector {
         );
     }
 
+    /**
+     * Same result as {@link #wordFreqCollector()}, but counts into a {@link WordCountTable}
+     * instead of a HashMap<String, Long>: counts are primitive longs and each distinct word
+     * is stored once as chars, so repeated words allocate nothing.
+     *
+     * @return A collector that produces a read-only Map<String, Long> view where:
+     *         - Key: the word
+     *         - Value: the count of occurrences
+     */
+    public static Collector<String, ?, Map<String, Long>> wordFreqTableCollector() {
+        return Collector.of(
+                WordCountTable::new,                // Supplier: empty table
+                WordCountTable::add,                // Accumulator: counts one word
+                WordCountTable::merge,              // Combiner: adds the counts of the second table
+                WordCountTable::asMap               // Finisher: lazily materialized map view
+        );
+    }
+
+    /**
+     * Creates a collector over lines of text that counts the frequency of each word.
+     * Lines are tokenized with {@link WordTokenizer} (split by whitespace, lowercase,
+     * alphabetic words only) and each word span is counted straight into a {@link WordCountTable},
+     * so no String is created per word.
+     *
+     * @return A collector that produces a read-only Map<String, Long> view of word -> count
+     */
+    public static Collector<String, ?, Map<String, Long>> lineWordFreqCollector() {
+        return WordTokenizer.collectingWords(
+                WordCountTable::new,
+                WordCountTable::add,
+                WordCountTable::merge,
+                WordCountTable::asMap
+        );
+    }
+
+    /**
+     * Creates a collector over lines of text that finds the (approximately) most frequent words
+     * in fixed memory, for vocabularies too large for {@link #lineWordFreqCollector()}.
+     * Works with both {@link FileManager#readFile} and {@link FileManager#readFileParallel};
+     * partial results are merged with {@link HeavyHittersSketch#merge}.
+     *
+     * @param k Number of words to report
+     * @return A collector that produces the top k words, most frequent first, each with
+     *         an estimated count and a lower bound on its true count
+     */
+    public static Collector<String, ?, List<HeavyHittersSketch.HeavyHitter>> topWordFreqCollector(int k) {
+        return WordTokenizer.collectingWords(
+                () -> new HeavyHittersSketch(k),
+                HeavyHittersSketch::add,
+                HeavyHittersSketch::merge,
+                HeavyHittersSketch::topK
+        );
+    }
+
     @SuppressWarnings("all")
     public static void main( String[] args ) {
         try {
-            Collector<String, ?, Map<String, Long>> wordProcessor = Collectors.mapping(
-                    line -> Arrays.stream(line.split("\\s+"))  // Split by whitespace and flatten
-                            .map(String::toLowerCase)  // Convert to lowercase for case-insensitive counting
-                            .filter(word -> !word.isEmpty())  // Remove empty strings
-                            .filter(word -> word.matches("[a-z]+"))  // Only keep words with alphabetic characters
-                            .collect(Collectors.toList()
-                            ),
-                    Collectors.flatMapping(
-                            list -> list.stream(),
-                            wordFreqCollector()
-                    )
-            );
-            System.out.println("Word frequencies: " + FileManager.readFile("test.txt", wordProcessor));
+            // Each line is tokenized by the shared WordTokenizer (split by whitespace, lowercase,
+            // alphabetic words only) and each word is counted straight into a WordCountTable
+            Collector<String, ?, Map<String, Long>> wordProcessor = lineWordFreqCollector();
+            Map<String, Long> frequencies = FileManager.readFile("test.txt", wordProcessor);
+            System.out.println("Word frequencies: " + frequencies);
+
+            // Same collector, but the file is memory-mapped and its chunks are processed in parallel
+            Map<String, Long> parallelFrequencies = FileManager.readFileParallel("test.txt", wordProcessor);
+            assert frequencies.equals(parallelFrequencies);
+
+            // Same counts as the plain groupingBy(identity(), counting()) version
+            Map<String, Long> groupingFrequencies = FileManager.readFile("test.txt", Collectors.flatMapping(
+                    line -> TotalAndAverageWordLength.lineToWordsCollector().apply(line).stream(),
+                    wordFreqCollector()
+            ));
+            assert groupingFrequencies.equals(frequencies);
+            assert frequencies.equals(groupingFrequencies);
+
+            // Approximate top words in fixed memory; every true count lies within the reported bounds
+            List<HeavyHittersSketch.HeavyHitter> topWords = FileManager.readFileParallel("test.txt", topWordFreqCollector(3));
+            System.out.println("Top words: " + topWords);
+            for (HeavyHittersSketch.HeavyHitter hitter : topWords) {
+                long exact = frequencies.get(hitter.word());
+                assert hitter.lowerBound() <= exact && exact <= hitter.count();
+            }
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
             e.printStackTrace();
@@ -0,0 +1,358 @@
+package beginner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate top-K word frequencies in fixed memory, for inputs whose vocabulary is too large
+ * to count exactly with {@link FileWordFreqCollector#wordFreqCollector()} or {@link WordCountTable}.
+ * <a/>
+ * Two summaries are updated for every word:
+ * 1. Space-Saving: a fixed number of monitored words (the candidates) with a counter and an error each.
+ *    A new word replaces the word with the smallest counter and inherits that counter as its error,
+ *    so a counter over-estimates the true count by at most its error, and the error is at most N / capacity.
+ * 2. Count-Min Sketch: depth x width counters; a word adds one counter per row, and its estimate is the
+ *    smallest of its counters. It never under-estimates, and over-estimates by at most e * N / width
+ *    with probability 1 - e^-depth.
+ * The reported count is the smaller of the two upper bounds, and the Space-Saving counter minus
+ * its error is a guaranteed lower bound.
+ * <a/>
+ * Both summaries are mergeable (counters are added, missing Space-Saving candidates are charged the
+ * other summary's minimum counter), so sketches built in parallel can be combined without losing the bounds.
+ * Memory is depth * width longs plus capacity candidates, whatever the input size.
+ * <a/>
+ * Not thread-safe: use one sketch per collector container and {@link #merge} them.
+ */
+public class HeavyHittersSketch {
+
+    /**
+     * A frequent word with its estimated count.
+     * The true count is in [lowerBound, count], so {@link #error()} is the maximum over-estimation.
+     */
+    public record HeavyHitter(String word, long count, long lowerBound) {
+        public long error() { return count - lowerBound; }
+    }
+
+    private static final int DEFAULT_DEPTH = 4;                 // 1 - e^-4 ≈ 98% confidence
+    private static final int CANDIDATES_PER_RESULT = 4;         // extra candidates make the top K more accurate
+
+    private final int k;
+
+    // Count-Min Sketch: row-major depth x width counters
+    private final int depth;
+    private final int widthMask;                                // width - 1, width is a power of two
+    private final long[] sketch;
+
+    // Space-Saving: min-heap of candidates ordered by counter
+    private final String[] words;
+    private final long[] counters;
+    private final long[] errors;
+    private final long[] wordHashes;
+    private int candidates;
+
+    // Open-addressing index: word hash -> heap position, so a word span is found without creating a String
+    private final int[] index;                                  // heap position + 1, 0 for free
+    private final int indexMask;
+
+    private long total;                                         // number of words seen (N)
+
+    /**
+     * Creates a sketch that reports the top {@code k} words, with {@value #CANDIDATES_PER_RESULT} x k candidates
+     * and a Count-Min Sketch of {@value #DEFAULT_DEPTH} rows of 2^16 counters (2 MB).
+     */
+    public HeavyHittersSketch(int k) {
+        this(k, k * CANDIDATES_PER_RESULT, 1 << 16, DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param k Number of words reported by {@link #topK()}
+     * @param capacity Number of Space-Saving candidates, at least k
+     * @param width Count-Min Sketch counters per row, rounded up to a power of two
+     * @param depth Count-Min Sketch rows
+     */
+    public HeavyHittersSketch(int k, int capacity, int width, int depth) {
+        if (k <= 0 || capacity < k || width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("Invalid sketch size: k=" + k + ", capacity=" + capacity
+                    + ", width=" + width + ", depth=" + depth);
+        }
+        this.k = k;
+        this.depth = depth;
+        int roundedWidth = Integer.highestOneBit(Math.max(2, width) - 1) << 1;
+        this.widthMask = roundedWidth - 1;
+        this.sketch = new long[depth * roundedWidth];
+
+        this.words = new String[capacity];
+        this.counters = new long[capacity];
+        this.errors = new long[capacity];
+        this.wordHashes = new long[capacity];
+
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.index = new int[indexSize];
+        this.indexMask = indexSize - 1;
+    }
+
+    /**
+     * Counts one occurrence of the word chars[offset, offset + length).
+     * Matches {@link WordTokenizer.WordAccumulator} so it can be passed as {@code HeavyHittersSketch::add}.
+     * A String is only created when the word becomes a new candidate.
+     */
+    public void add(char[] chars, int offset, int length) {
+        long hash = hash(chars, offset, length);
+        total++;
+        addToSketch(hash, 1);
+
+        int position = findCandidate(chars, offset, length, hash);
+        if (position >= 0) {
+            counters[position]++;
+            siftDown(position);
+        } else if (candidates < words.length) {
+            int added = candidates++;
+            setCandidate(added, new String(chars, offset, length), hash, 1, 0);
+            siftUp(added);
+        } else {
+            // Replace the candidate with the smallest counter; its counter becomes the newcomer's error
+            long minimum = counters[0];
+            unindex(wordHashes[0], 0);
+            setCandidate(0, new String(chars, offset, length), hash, minimum + 1, minimum);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Counts one occurrence of the word.
+     */
+    public void add(String word) {
+        add(word.toCharArray(), 0, word.length());
+    }
+
+    /**
+     * Upper bound on the count of any word from the Count-Min Sketch alone.
+     */
+    public long estimate(String word) {
+        return sketchEstimate(hash(word.toCharArray(), 0, word.length()));
+    }
+
+    /**
+     * @return Number of words counted
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Merges the other sketch into this one. Both must have been created with the same sizes.
+     *
+     * @param other The sketch to merge in (not modified)
+     * @return This sketch with the combined summaries
+     */
+    public HeavyHittersSketch merge(HeavyHittersSketch other) {
+        if (other.sketch.length != sketch.length || other.depth != depth || other.words.length != words.length) {
+            throw new IllegalArgumentException("Cannot merge sketches of different sizes");
+        }
+        for (int i = 0; i < sketch.length; i++) {
+            sketch[i] += other.sketch[i];
+        }
+
+        // A word missing from a full summary may still have occurred up to that summary's minimum counter
+        long missingHere = candidates == words.length ? counters[0] : 0;
+        long missingThere = other.candidates == other.words.length ? other.counters[0] : 0;
+
+        Map<String, long[]> merged = new HashMap<>();  // word -> {counter, error, hash}
+        for (int i = 0; i < candidates; i++) {
+            merged.put(words[i], new long[] { counters[i] + missingThere, errors[i] + missingThere, wordHashes[i] });
+        }
+        for (int i = 0; i < other.candidates; i++) {
+            long[] entry = merged.get(other.words[i]);
+            if (entry == null) {
+                merged.put(other.words[i], new long[] {
+                        other.counters[i] + missingHere, other.errors[i] + missingHere, other.wordHashes[i] });
+            } else {
+                // Present in both: undo the charge for being missing and add the real counter instead
+                entry[0] += other.counters[i] - missingThere;
+                entry[1] += other.errors[i] - missingThere;
+            }
+        }
+
+        // Keep the candidates with the largest counters
+        List<Map.Entry<String, long[]>> kept = new ArrayList<>(merged.entrySet());
+        kept.sort(Comparator.comparingLong((Map.Entry<String, long[]> e) -> e.getValue()[0]).reversed()
+                .thenComparing(Map.Entry::getKey));
+        Arrays.fill(index, 0);
+        candidates = Math.min(words.length, kept.size());
+        for (int i = 0; i < candidates; i++) {
+            long[] entry = kept.get(i).getValue();
+            setCandidate(i, kept.get(i).getKey(), entry[2], entry[0], entry[1]);
+        }
+        for (int i = candidates / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        total += other.total;
+        return this;
+    }
+
+    /**
+     * Returns the (up to) k words with the highest estimated counts, highest first.
+     * Equal counts are ordered by word so the result is deterministic.
+     */
+    public List<HeavyHitter> topK() {
+        List<HeavyHitter> result = new ArrayList<>(candidates);
+        for (int i = 0; i < candidates; i++) {
+            long count = Math.min(counters[i], sketchEstimate(wordHashes[i]));
+            result.add(new HeavyHitter(words[i], count, counters[i] - errors[i]));
+        }
+        result.sort(Comparator.comparingLong(HeavyHitter::count).reversed().thenComparing(HeavyHitter::word));
+        return result.size() > k ? List.copyOf(result.subList(0, k)) : List.copyOf(result);
+    }
+
+    private void addToSketch(long hash, long count) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;  // odd, so the rows use different columns
+        for (int row = 0; row < depth; row++) {
+            sketch[row * (widthMask + 1) + ((h1 + row * h2) & widthMask)] += count;
+        }
+    }
+
+    private long sketchEstimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, sketch[row * (widthMask + 1) + ((h1 + row * h2) & widthMask)]);
+        }
+        return estimate;
+    }
+
+    private void setCandidate(int position, String word, long hash, long counter, long error) {
+        words[position] = word;
+        wordHashes[position] = hash;
+        counters[position] = counter;
+        errors[position] = error;
+        indexInsert(hash, position);
+    }
+
+    private int findCandidate(char[] chars, int offset, int length, long hash) {
+        int slot = (int) (hash >>> 40) & indexMask;
+        while (index[slot] != 0) {
+            int position = index[slot] - 1;
+            if (wordHashes[position] == hash && matches(words[position], chars, offset, length)) {
+                return position;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+        return -1;
+    }
+
+    private static boolean matches(String word, char[] chars, int offset, int length) {
+        if (word.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void indexInsert(long hash, int position) {
+        int slot = (int) (hash >>> 40) & indexMask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index[slot] = position + 1;
+    }
+
+    /**
+     * Returns the index slot that points at this heap position.
+     */
+    private int indexSlot(long hash, int position) {
+        int slot = (int) (hash >>> 40) & indexMask;
+        while (index[slot] != position + 1) {
+            slot = (slot + 1) & indexMask;
+        }
+        return slot;
+    }
+
+    /**
+     * Removes the index entry for the candidate at this heap position, shifting back
+     * the entries after it so linear probing still finds them (no tombstones).
+     */
+    private void unindex(long hash, int position) {
+        int slot = indexSlot(hash, position);
+        index[slot] = 0;
+        int next = (slot + 1) & indexMask;
+        while (index[next] != 0) {
+            int moved = index[next];
+            int home = (int) (wordHashes[moved - 1] >>> 40) & indexMask;
+            // Move the entry back if its home slot is not between the hole and its current slot
+            if (((next - home) & indexMask) >= ((next - slot) & indexMask)) {
+                index[slot] = moved;
+                index[next] = 0;
+                slot = next;
+            }
+            next = (next + 1) & indexMask;
+        }
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (counters[parent] <= counters[position]) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < candidates && counters[left] < counters[smallest]) {
+                smallest = left;
+            }
+            if (right < candidates && counters[right] < counters[smallest]) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int slotA = indexSlot(wordHashes[a], a);
+        int slotB = indexSlot(wordHashes[b], b);
+        index[slotA] = b + 1;
+        index[slotB] = a + 1;
+        String word = words[a]; words[a] = words[b]; words[b] = word;
+        long hash = wordHashes[a]; wordHashes[a] = wordHashes[b]; wordHashes[b] = hash;
+        long counter = counters[a]; counters[a] = counters[b]; counters[b] = counter;
+        long error = errors[a]; errors[a] = errors[b]; errors[b] = error;
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars, finished with the MurmurHash3 mixer.
+     */
+    private static long hash(char[] chars, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= chars[i];
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -1,10 +1,12 @@
 package beginner;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
@@ -43,30 +45,12 @@ public class MedianCollector {
 
     // want to return list of students' subject grade medians as k : v pair, where k = subject & v = median value
     // due to stream pipeline using type specific methods like Student::getSubject, the return type of method cannot be more general (as in using Generics)
-    @SuppressWarnings("all")
     public static Collector<Student, ?, Map<String, Double>> getSubjectMedians() {
         return Collectors.groupingBy(
                 Student::getSubject,
-                Collectors.collectingAndThen(
-                    Collectors.toList(), // change from mapping(Student::getGrade, toList) to make pipeline data more apparent
-                    subjectStudents -> {
-                        // After Java 16+, toList() already returns as unmodifiable list (immutable collections are thread safe)
-                        // wrapping with unmodifiableList is redundant in this case but is explicit and is backward compatible if Java < 16
-                        List<Double> grades = Collections.unmodifiableList(
-                            subjectStudents.stream()
-                                .map(Student::getGrade)// added with the change above since data is of list of Student not grades.
-                                .sorted()
-                                .toList()
-                        );
-                        int size = subjectStudents.size();
-                        if(size % 2 == 0) {
-                            return (grades.get(grades.size() / 2 - 1) + grades.get(grades.size() / 2)) / 2;
-                        }
-                        else {
-                            return grades.get(grades.size() / 2);
-                        }
-                    }
-        ));
+                // grades go straight into a primitive buffer; the median is selected, not sorted, at the end
+                medianCollector(Student::getGrade)
+        );
     }
 
     // A more generic version of the custom Collector method
@@ -83,39 +67,92 @@ public class MedianCollector {
      *    String subject = subjectExtractor.apply(student);  // returns "Physics"
      * <p>
      *    // The gradeExtractor function is called like:
-     *    Double grade = gradeExtractor.apply(student);      // returns 85.0
+     *    double grade = gradeExtractor.applyAsDouble(student);  // returns 85.0, without boxing it to a Double
      */
-    @SuppressWarnings("all")
     public static <T> Collector<T, ?, Map<String, Double>> getStudentMedians(
             Function<T, String> subjectExtractor, // inferred type of Student in this case and a return type of String => Function<Student, String> subjectFunction = (Student student) -> student.getSubject(); => Student::getSubject
-            Function<T, Double> gradeExtractor) { // inferred type of Student in this case and a return type of Double => Function<Student, Double> gradeFunction = (Student student) -> student.getGrade(); => Student::getGrade
+            ToDoubleFunction<T> gradeExtractor) { // inferred type of Student in this case and a return type of double => ToDoubleFunction<Student> gradeFunction = (Student student) -> student.getGrade(); => Student::getGrade
         return Collectors.groupingBy(
                 subjectExtractor,
-                Collectors.mapping(
-                        gradeExtractor,
-                        medianCollector()
-                ));
+                medianCollector(gradeExtractor)
+        );
+    }
+
+    /**
+     * Same grouping as {@link #getStudentMedians(Function, ToDoubleFunction)}, with any per-subject downstream,
+     * e.g. {@link #quantileSketchCollector(ToDoubleFunction)} to keep a mergeable sketch per subject
+     * instead of every grade.
+     */
+    public static <T, D> Collector<T, ?, Map<String, D>> getStudentMedians(
+            Function<T, String> subjectExtractor,
+            Collector<T, ?, D> downstream) {
+        return Collectors.groupingBy(subjectExtractor, downstream);
+    }
+
+    /**
+     * A Collector that summarizes the values extracted from each element into a {@link QuantileSketch}.
+     * Memory per group is bounded (about 3 * {@value QuantileSketch#DEFAULT_K} values) and the rank error
+     * of any quantile is about 1.65%. Sketches from parallel partitions are merged by the combiner,
+     * and finished sketches (e.g. one per shard) can still be merged with {@link QuantileSketch#merge}.
+     * @param valueExtractor Function that returns the value of an element as a primitive double
+     * @return The sketch, to query p50/p95/p99 etc. with {@link QuantileSketch#quantiles}
+     */
+    public static <T> Collector<T, ?, QuantileSketch> quantileSketchCollector(ToDoubleFunction<T> valueExtractor) {
+        return Collector.of(
+                QuantileSketch::new,
+                (sketch, element) -> sketch.accept(valueExtractor.applyAsDouble(element)),
+                QuantileSketch::merge,
+                Collector.Characteristics.IDENTITY_FINISH
+        );
+    }
+
+    /**
+     * A Collector that calculates an approximate median in bounded memory, see {@link #quantileSketchCollector}.
+     * @param valueExtractor Function that returns the value of an element as a primitive double
+     * @return The approximate median, NaN if there are no elements
+     */
+    public static <T> Collector<T, ?, Double> approximateMedianCollector(ToDoubleFunction<T> valueExtractor) {
+        return Collectors.collectingAndThen(quantileSketchCollector(valueExtractor), QuantileSketch::median);
     }
 
     /**
      * A Collector that calculates the median of the list of grades (Double type)
-     * Input is already a list of grades of subject.
-     * Using the list of grades, we order them to calculate the median value
-     * @return A {@link Double} value median grade value
+     * Each grade is unboxed into a {@link PercentileBuffer}, and the median is found with quickselect
+     * instead of sorting every grade.
+     * @return A {@link Double} value median grade value, NaN if there are no grades
      */
     public static Collector<Double, ?, Double> medianCollector() {
-        return Collectors.collectingAndThen(
-                Collectors.toList(),
-                grades -> {
-                    List<Double> orderedGrades = grades.stream().sorted().toList(); // toList() -> unmodifiable list per Java 17+
-                    int size = orderedGrades.size();
-                    if(size % 2 == 0) {
-                        return (grades.get(grades.size() / 2 - 1) + grades.get(grades.size() / 2)) / 2;
-                    }
-                    else {
-                        return grades.get(grades.size() / 2);
-                    }
-                }
+        return medianCollector(Double::doubleValue);
+    }
+
+    /**
+     * A Collector that calculates the median of the values extracted from each element.
+     * @param valueExtractor Function that returns the value of an element as a primitive double
+     * @return A {@link Double} value median value, NaN if there are no elements
+     */
+    public static <T> Collector<T, ?, Double> medianCollector(ToDoubleFunction<T> valueExtractor) {
+        return Collector.of(
+                PercentileBuffer::new,                                            // Supplier: empty growable double[]
+                (buffer, element) -> buffer.accept(valueExtractor.applyAsDouble(element)), // Accumulator: stores the unboxed value
+                PercentileBuffer::combine,                                        // Combiner: appends the second buffer
+                PercentileBuffer::median                                          // Finisher: selects the middle value(s)
+        );
+    }
+
+    /**
+     * A Collector that calculates several percentiles of the values extracted from each element
+     * from a single buffer, e.g. percentilesCollector(Student::getGrade, 0.5, 0.95, 0.99).
+     * @param valueExtractor Function that returns the value of an element as a primitive double
+     * @param percentiles Percentiles as fractions in [0, 1]
+     * @return The percentiles in the requested order, NaN if there are no elements
+     */
+    public static <T> Collector<T, ?, double[]> percentilesCollector(ToDoubleFunction<T> valueExtractor, double... percentiles) {
+        double[] requested = percentiles.clone();
+        return Collector.of(
+                PercentileBuffer::new,
+                (buffer, element) -> buffer.accept(valueExtractor.applyAsDouble(element)),
+                PercentileBuffer::combine,
+                buffer -> buffer.percentiles(requested)
         );
     }
 
@@ -140,5 +177,52 @@ public class MedianCollector {
         Map<String, Double> genericSubjectMedians = students.stream()
             .collect(getStudentMedians(Student::getSubject, Student::getGrade));
         System.out.println("genericSubjectMedians = " + genericSubjectMedians);
+
+        // Verification: Physics {47, 77, 83, 87, 97}, Biology {63, 73, 93}, Chemistry {81, 91}
+        assert subjectMedians.equals(Map.of("Physics", 83.0, "Biology", 73.0, "Chemistry", 86.0));
+        assert genericSubjectMedians.equals(subjectMedians);
+
+        // Unsorted input used to give the wrong median through medianCollector()
+        assert List.of(97.0, 77.0, 87.0, 47.0).stream().collect(medianCollector()) == 82.0;
+
+        // p50, p95 and p99 of the Physics grades from one buffer
+        double[] physicsPercentiles = students.stream()
+                .filter(student -> student.getSubject().equals("Physics"))
+                .collect(percentilesCollector(Student::getGrade, 0.5, 0.95, 0.99));
+        System.out.println("physicsPercentiles = " + Arrays.toString(physicsPercentiles));
+        assert physicsPercentiles[0] == 83.0;
+
+        // Approximate per-subject sketches: bounded memory, mergeable across shards
+        Map<String, QuantileSketch> subjectSketches = students.stream()
+            .collect(getStudentMedians(Student::getSubject, quantileSketchCollector(Student::getGrade)));
+        subjectSketches.forEach((subject, sketch) ->
+            System.out.println(subject + " p50/p95/p99 = " + Arrays.toString(sketch.quantiles(0.5, 0.95, 0.99))));
+
+        // With few values the sketch keeps them all, so the median is one of the middle grades
+        Map<String, Double> approximateMedians = students.stream()
+            .collect(getStudentMedians(Student::getSubject, approximateMedianCollector(Student::getGrade)));
+        System.out.println("approximateMedians = " + approximateMedians);
+        assert approximateMedians.get("Physics") == 83.0;
+
+        // Two equal-sized partials (as a parallel stream makes) merged, then many more values streamed in:
+        // the compactions after the merge must still pick random halves, or the ranks drift low
+        QuantileSketch left = new QuantileSketch();
+        QuantileSketch right = new QuantileSketch();
+        for (int i = 0; i < 100; i++) {
+            left.accept(i / 200.0);
+            right.accept((i + 100) / 200.0);
+        }
+        QuantileSketch merged = left.merge(right);
+        Random random = new Random(7);
+        int streamed = 2_000_000;
+        for (int i = 0; i < streamed; i++) {
+            merged.accept(random.nextDouble());
+        }
+        // After the merged 200 values, the values are uniform in [0, 1): quantile q is about q
+        double[] estimates = merged.quantiles(0.1, 0.5, 0.9);
+        System.out.println("merged sketch p10/p50/p90 = " + Arrays.toString(estimates));
+        assert Math.abs(estimates[0] - 0.1) < 0.0165;
+        assert Math.abs(estimates[1] - 0.5) < 0.0165;
+        assert Math.abs(estimates[2] - 0.9) < 0.0165;
     }
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+package beginner;
+
+import java.util.Arrays;
+
+/**
+ * Growable primitive buffer of double values that answers exact medians and percentiles.
+ * <a/>
+ * Values are kept unboxed in a double[], and percentiles are found with quickselect (average O(n))
+ * instead of sorting the whole buffer (O(n log n)). Each selection leaves smaller values to the left of
+ * the selected position and larger values to the right, so several percentiles asked together are
+ * selected in increasing order, each one only searching the part right of the previous one.
+ * Selection falls back to sorting the remaining range if partitioning keeps going badly,
+ * so the worst case stays O(n log n).
+ * <a/>
+ * Percentiles are interpolated linearly between the two closest ranks:
+ * for p in [0, 1] the rank is p * (count - 1), so p = 0.5 gives the usual median
+ * (the middle value, or the mean of the two middle values for an even count).
+ * <a/>
+ * Selection reorders the buffer in place. Not thread-safe: use one buffer per collector container.
+ */
+public class PercentileBuffer {
+    private double[] values = new double[16];
+    private int count;
+
+    public void accept(double value) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = value;
+    }
+
+    /**
+     * Appends the other buffer's values to this one.
+     * Used as the combiner when buffers are filled in parallel.
+     *
+     * @param other The buffer to append (not modified)
+     * @return This buffer with both sets of values
+     */
+    public PercentileBuffer combine(PercentileBuffer other) {
+        if (count + other.count > values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, count + other.count));
+        }
+        System.arraycopy(other.values, 0, values, count, other.count);
+        count += other.count;
+        return this;
+    }
+
+    public int getCount() { return count; }
+
+    /**
+     * @return The median, or NaN if the buffer is empty
+     */
+    public double median() {
+        return percentile(0.5);
+    }
+
+    /**
+     * @param p The percentile as a fraction in [0, 1], e.g. 0.95 for p95
+     * @return The interpolated percentile, or NaN if the buffer is empty
+     */
+    public double percentile(double p) {
+        return percentiles(p)[0];
+    }
+
+    /**
+     * Answers several percentiles from one buffer.
+     *
+     * @param ps Percentiles as fractions in [0, 1], in any order
+     * @return The interpolated percentiles, in the same order as requested (all NaN if the buffer is empty)
+     */
+    public double[] percentiles(double... ps) {
+        double[] result = new double[ps.length];
+        if (count == 0) {
+            Arrays.fill(result, Double.NaN);
+            return result;
+        }
+
+        // Visit the requested percentiles from lowest to highest rank
+        Integer[] order = new Integer[ps.length];
+        for (int i = 0; i < ps.length; i++) {
+            if (!(ps[i] >= 0 && ps[i] <= 1)) {
+                throw new IllegalArgumentException("Percentile must be in [0, 1]: " + ps[i]);
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(ps[a], ps[b]));
+
+        int from = 0;  // everything left of 'from' is already known to be <= the remaining ranks
+        for (int i : order) {
+            double rank = ps[i] * (count - 1);
+            int lower = (int) Math.floor(rank);
+            int upper = Math.min(lower + 1, count - 1);
+            double fraction = rank - lower;
+
+            if (lower >= from) {
+                select(lower, from, count - 1);
+                from = lower;
+            }
+            double lowerValue = values[lower];
+            double upperValue = lowerValue;
+            if (fraction > 0 && upper != lower) {
+                if (upper > from) {
+                    select(upper, from + 1, count - 1);
+                    from = upper;
+                }
+                upperValue = values[upper];
+            }
+            result[i] = lowerValue * (1 - fraction) + upperValue * fraction;
+        }
+        return result;
+    }
+
+    /**
+     * Rearranges values[left..right] so that values[k] is the value of rank k in that range,
+     * with smaller or equal values before it and larger or equal values after it.
+     */
+    private void select(int k, int left, int right) {
+        int budget = 2 * (32 - Integer.numberOfLeadingZeros(right - left + 1));  // ~2 log2(n) partitions
+        while (right > left) {
+            if (budget-- == 0) {
+                Arrays.sort(values, left, right + 1);  // partitioning went badly too often
+                return;
+            }
+            double pivot = values[medianOfThree(left, left + (right - left) / 2, right)];
+
+            // Three-way partition: [left, lt) < pivot, [lt, gt] == pivot, (gt, right] > pivot.
+            // Grades repeat a lot, and keeping the equal values together stops them from being re-partitioned.
+            int lt = left, i = left, gt = right;
+            while (i <= gt) {
+                if (values[i] < pivot) {
+                    swap(lt++, i++);
+                } else if (values[i] > pivot) {
+                    swap(i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                right = lt - 1;
+            } else if (k > gt) {
+                left = gt + 1;
+            } else {
+                return;  // values[k] equals the pivot
+            }
+        }
+    }
+
+    private int medianOfThree(int a, int b, int c) {
+        double va = values[a], vb = values[b], vc = values[c];
+        if (va < vb) {
+            return vb < vc ? b : (va < vc ? c : a);
+        }
+        return va < vc ? a : (vb < vc ? c : b);
+    }
+
+    private void swap(int i, int j) {
+        double tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+    }
+}
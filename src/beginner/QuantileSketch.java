@@ -0,0 +1,265 @@
+package beginner;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable streaming quantile sketch (KLL, Karnin-Lang-Liberty) for approximate medians and
+ * percentiles when keeping every value, as {@link PercentileBuffer} does, is too much memory.
+ * <a/>
+ * Values are kept in levels of buffers: a value at level h stands for 2^h original values.
+ * When the sketch is full, the lowest full level is sorted and every other value (starting at a
+ * random offset) moves up one level with double the weight, and the rest are dropped.
+ * Level capacities shrink by a factor 2/3 going down from the top level, so the whole sketch
+ * holds about 3k values, plus a few per level, however many values were added.
+ * <a/>
+ * Error bound: the normalized rank error of any quantile is about 1.65% for k = 200 with 99%
+ * confidence (roughly proportional to 1/k), e.g. the reported p95 is a value whose true rank is
+ * between about p93.35 and p96.65. Min and max are tracked exactly.
+ * <a/>
+ * Two sketches built with the same k merge by concatenating their levels and compacting again,
+ * with the same error bound as a sketch built over all the values. Partial sketches from
+ * parallel streams or from separate shards can therefore be merged without the raw values.
+ * <a/>
+ * Not thread-safe: use one sketch per collector container and {@link #merge} them.
+ */
+public class QuantileSketch {
+    public static final int DEFAULT_K = 200;
+
+    private static final double CAPACITY_RATIO = 2.0 / 3.0;
+    private static final int MIN_LEVEL_CAPACITY = 8;
+
+    private final int k;
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    private int[] capacities = new int[1];  // recomputed whenever a level is added
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private long randomState = 0x9E3779B97F4A7C15L;  // fixed seed: the same input gives the same sketch
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k Accuracy parameter: a larger k means a smaller error and more memory
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_LEVEL_CAPACITY) {
+            throw new IllegalArgumentException("k must be at least " + MIN_LEVEL_CAPACITY + ": " + k);
+        }
+        this.k = k;
+        capacities[0] = capacity(0);
+        levels[0] = new double[capacities[0]];
+    }
+
+    public void accept(double value) {
+        if (Double.isNaN(value)) {
+            return;  // NaN has no rank
+        }
+        if (count == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        count++;
+        if (sizes[0] == levels[0].length) {
+            levels[0] = Arrays.copyOf(levels[0], levels[0].length * 2);
+        }
+        levels[0][sizes[0]++] = value;
+        if (sizes[0] >= capacities[0]) {
+            compactWhileFull();  // only the bottom level grows between compactions
+        }
+    }
+
+    /**
+     * Merges the other sketch into this one. Both must use the same k.
+     *
+     * @param other The sketch to merge in (not modified)
+     * @return This sketch, now summarizing the values of both
+     */
+    public QuantileSketch merge(QuantileSketch other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("Cannot merge sketches with different k: " + k + " and " + other.k);
+        }
+        if (other.count == 0) {
+            return this;
+        }
+        while (levels.length < other.levels.length) {
+            addLevel();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            append(h, other.levels[h], other.sizes[h]);
+        }
+        min = count == 0 ? other.min : Math.min(min, other.min);
+        max = count == 0 ? other.max : Math.max(max, other.max);
+        count += other.count;
+        randomState = mixRandomStates(randomState, other.randomState);
+        compactWhileFull();
+        return this;
+    }
+
+    public long getCount() { return count; }
+    public double getMin() { return min; }
+    public double getMax() { return max; }
+
+    public double median() {
+        return quantile(0.5);
+    }
+
+    /**
+     * @param q The quantile as a fraction in [0, 1], e.g. 0.99 for p99
+     * @return A value whose rank is within the error bound of q, NaN if the sketch is empty
+     */
+    public double quantile(double q) {
+        return quantiles(q)[0];
+    }
+
+    /**
+     * Answers several quantiles with one sort of the retained values.
+     *
+     * @param qs Quantiles as fractions in [0, 1], in any order
+     * @return The estimated quantiles in the requested order (all NaN if the sketch is empty)
+     */
+    public double[] quantiles(double... qs) {
+        double[] result = new double[qs.length];
+        if (count == 0) {
+            Arrays.fill(result, Double.NaN);
+            return result;
+        }
+
+        // Retained values with their weights, visited in value order (only about 3k values)
+        int retained = 0;
+        for (int size : sizes) {
+            retained += size;
+        }
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        Integer[] order = new Integer[retained];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[n] = levels[h][i];
+                weights[n] = 1L << h;
+                order[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        for (int j = 0; j < qs.length; j++) {
+            double q = qs[j];
+            if (!(q >= 0 && q <= 1)) {
+                throw new IllegalArgumentException("Quantile must be in [0, 1]: " + q);
+            }
+            if (q == 0) {
+                result[j] = min;
+                continue;
+            }
+            if (q == 1) {
+                result[j] = max;
+                continue;
+            }
+            double target = q * count;
+            long cumulative = 0;
+            result[j] = max;
+            for (int index : order) {
+                cumulative += weights[index];
+                if (cumulative >= target) {
+                    result[j] = values[index];
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Capacity of level h, counted from the current top level down.
+     */
+    private int capacity(int h) {
+        int depthBelowTop = levels.length - 1 - h;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depthBelowTop)));
+    }
+
+    private void compactWhileFull() {
+        while (true) {
+            int full = -1;
+            for (int h = 0; h < levels.length; h++) {
+                if (sizes[h] >= capacities[h]) {
+                    full = h;
+                    break;
+                }
+            }
+            if (full < 0) {
+                return;
+            }
+            compact(full);
+        }
+    }
+
+    /**
+     * Sorts level h and promotes every other value to level h + 1.
+     * With an odd size, one value stays at level h so no weight is lost.
+     */
+    private void compact(int h) {
+        if (h + 1 == levels.length) {
+            addLevel();
+        }
+        double[] level = levels[h];
+        int size = sizes[h];
+        Arrays.sort(level, 0, size);
+
+        int keep = size % 2;  // the odd value out (the smallest) stays behind
+        int offset = nextRandomBit();
+        int promoted = (size - keep) / 2;
+        double[] up = new double[promoted];
+        for (int i = 0; i < promoted; i++) {
+            up[i] = level[keep + 2 * i + offset];
+        }
+        sizes[h] = keep;
+        append(h + 1, up, promoted);
+    }
+
+    private void append(int h, double[] values, int length) {
+        if (sizes[h] + length > levels[h].length) {
+            levels[h] = Arrays.copyOf(levels[h], Math.max(levels[h].length * 2, sizes[h] + length));
+        }
+        System.arraycopy(values, 0, levels[h], sizes[h], length);
+        sizes[h] += length;
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        sizes = Arrays.copyOf(sizes, sizes.length + 1);
+        levels[levels.length - 1] = new double[MIN_LEVEL_CAPACITY];
+        capacities = new int[levels.length];
+        for (int h = 0; h < levels.length; h++) {
+            capacities[h] = capacity(h);
+        }
+    }
+
+    /**
+     * Seeds the merged generator from both states. A plain xor of two equal states (two partials that drew
+     * as many bits from the same fixed seed) would be 0, where xorshift stays forever.
+     * The splitmix64 finalizer over the sum (offset by the golden ratio) spreads any two states, and a zero
+     * result is replaced by the seed.
+     */
+    private static long mixRandomStates(long a, long b) {
+        long z = a + b + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return z == 0 ? 0x9E3779B97F4A7C15L : z;
+    }
+
+    private int nextRandomBit() {
+        // xorshift64
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 7;
+        randomState ^= randomState << 17;
+        return (int) (randomState >>> 63);
+    }
+}
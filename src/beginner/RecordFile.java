@@ -0,0 +1,423 @@
+package beginner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Compact binary file of fixed-width records, read through a memory mapping.
+ * Loading such a file is a map call plus decoding the distinct strings, instead of parsing every line of a text file.
+ * <a/>
+ * File layout (little-endian):
+ * 1. Header of {@value #HEADER_SIZE} bytes: magic, version, record type, record width, record count,
+ *    offset and size of the string dictionary
+ * 2. Records: record count * record width bytes, record i starting at HEADER_SIZE + i * width
+ * 3. String dictionary: for every distinct string, its UTF-8 length (int) and bytes.
+ *    Records store strings as int codes into the dictionary (-1 for null)
+ * <a/>
+ * Because every record has the same width, record i is found without scanning, so the file can be split
+ * anywhere: {@link #stream()} uses a spliterator with exact sizes that halves its index range,
+ * which gives parallel streams evenly sized tasks.
+ * Records are decoded by the {@link Format} only when the stream pulls them. Queries that only need a few
+ * fields can skip objects entirely with {@link #indexes()} and the field getters, e.g. {@link #doubles(int)}.
+ * <a/>
+ * The reader is safe to use from several threads: all reads are absolute reads of read-only mappings.
+ * Files larger than 2 GB are mapped as several segments.
+ *
+ * @param <T> The record type
+ */
+public class RecordFile<T> implements AutoCloseable {
+    public static final int HEADER_SIZE = 64;
+
+    private static final int MAGIC = 0x46434552;  // "RECF"
+    private static final int VERSION = 1;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * How one record type is laid out in a record file.
+     *
+     * @param <T> The record type
+     */
+    public interface Format<T> {
+        /**
+         * @return Id stored in the header, so a file is never read with the wrong format
+         */
+        int typeId();
+
+        /**
+         * @return Number of bytes of every record
+         */
+        int width();
+
+        /**
+         * Writes one record at the buffer's position, using exactly {@link #width()} bytes.
+         *
+         * @param record The record to write
+         * @param out Little-endian buffer with at least width bytes remaining
+         * @param strings Dictionary that turns strings into the codes to store
+         */
+        void write(T record, ByteBuffer out, Strings strings);
+
+        /**
+         * Decodes record i of the file into an object.
+         */
+        T read(RecordFile<T> file, long index);
+    }
+
+    /**
+     * String dictionary of a file being written.
+     */
+    public interface Strings {
+        /**
+         * @return The code of the string, -1 for null
+         */
+        int encode(String value);
+    }
+
+    private final Format<T> format;
+    private final FileChannel channel;
+    private final long count;
+    private final int width;
+    private final String[] dictionary;
+    private final MappedByteBuffer[] segments;
+    private final long recordsPerSegment;
+
+    private RecordFile(Format<T> format, FileChannel channel, long count, String[] dictionary) throws IOException {
+        this.format = format;
+        this.channel = channel;
+        this.count = count;
+        this.width = format.width();
+        this.dictionary = dictionary;
+
+        // Each mapping holds a whole number of records and stays under the 2 GB limit of a ByteBuffer
+        this.recordsPerSegment = Math.max(1, Integer.MAX_VALUE / width);
+        int segmentCount = (int) ((count + recordsPerSegment - 1) / recordsPerSegment);
+        this.segments = new MappedByteBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            long first = s * recordsPerSegment;
+            long records = Math.min(recordsPerSegment, count - first);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * width, records * width);
+            segments[s].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Writes records to a file, replacing it if it exists.
+     *
+     * @param path The file to write
+     * @param format Layout of the records
+     * @param records Records to write, in file order
+     * @return The number of records written
+     * @throws RuntimeException if there's an error writing the file
+     */
+    public static <T> long write(Path path, Format<T> format, Iterable<? extends T> records) {
+        int width = format.width();
+        Map<String, Integer> codes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        Strings dictionary = value -> value == null ? -1 : codes.computeIfAbsent(value, key -> {
+            strings.add(key);
+            return strings.size() - 1;
+        });
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(WRITE_BUFFER_SIZE, width)).order(ByteOrder.LITTLE_ENDIAN);
+
+            // 1. Records, after room for the header
+            channel.position(HEADER_SIZE);
+            long count = 0;
+            for (T record : records) {
+                if (buffer.remaining() < width) {
+                    flush(channel, buffer);
+                }
+                int start = buffer.position();
+                format.write(record, buffer, dictionary);
+                if (buffer.position() - start != width) {
+                    throw new IllegalStateException("Format wrote " + (buffer.position() - start)
+                            + " bytes for a record of width " + width);
+                }
+                count++;
+            }
+            flush(channel, buffer);
+
+            // 2. Dictionary
+            long dictionaryOffset = channel.position();
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < Integer.BYTES) {
+                    flush(channel, buffer);
+                }
+                buffer.putInt(bytes.length);
+                for (int written = 0; written < bytes.length; ) {
+                    if (!buffer.hasRemaining()) {
+                        flush(channel, buffer);
+                    }
+                    int length = Math.min(buffer.remaining(), bytes.length - written);
+                    buffer.put(bytes, written, length);
+                    written += length;
+                }
+            }
+            flush(channel, buffer);
+
+            // 3. Header, now that the counts are known
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(format.typeId()).putInt(width)
+                    .putLong(count).putLong(dictionaryOffset).putInt(strings.size());
+            while (buffer.position() < HEADER_SIZE) {
+                buffer.put((byte) 0);
+            }
+            buffer.flip();
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            return count;
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing file = " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Opens a record file. Only the header and the string dictionary are read; records are mapped, not loaded.
+     *
+     * @param path The file to read
+     * @param format Layout of the records, must match the record type and width stored in the file
+     * @return The open file, to be closed after use
+     * @throws RuntimeException if the file can't be read or is not a record file of this format
+     */
+    public static <T> RecordFile<T> open(Path path, Format<T> format) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IllegalArgumentException("Not a record file (too short): " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            int magic = header.getInt();
+            int version = header.getInt();
+            int typeId = header.getInt();
+            int width = header.getInt();
+            long count = header.getLong();
+            long dictionaryOffset = header.getLong();
+            int dictionarySize = header.getInt();
+
+            if (magic != MAGIC || version != VERSION) {
+                throw new IllegalArgumentException("Not a record file (magic " + Integer.toHexString(magic)
+                        + ", version " + version + "): " + path);
+            }
+            if (typeId != format.typeId() || width != format.width()) {
+                throw new IllegalArgumentException("File holds record type " + typeId + " of width " + width
+                        + ", format expects type " + format.typeId() + " of width " + format.width() + ": " + path);
+            }
+            if (count < 0 || dictionaryOffset != HEADER_SIZE + count * width || dictionaryOffset > size) {
+                throw new IllegalArgumentException("Corrupt record file (" + count + " records, dictionary at "
+                        + dictionaryOffset + ", file size " + size + "): " + path);
+            }
+
+            String[] dictionary = new String[dictionarySize];
+            if (dictionarySize > 0) {
+                ByteBuffer strings = channel.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset, size - dictionaryOffset)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                byte[] bytes = new byte[64];
+                for (int i = 0; i < dictionarySize; i++) {
+                    int length = strings.getInt();
+                    if (length > bytes.length) {
+                        bytes = new byte[Math.max(length, bytes.length * 2)];
+                    }
+                    strings.get(bytes, 0, length);
+                    dictionary[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+                }
+            }
+            return new RecordFile<>(format, channel, count, dictionary);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(channel, e);
+            if (e instanceof IllegalArgumentException illegal) {
+                throw illegal;
+            }
+            throw new RuntimeException("Error reading file = " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return Number of records in the file
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Decodes one record.
+     */
+    public T get(long index) {
+        checkIndex(index);
+        return format.read(this, index);
+    }
+
+    /**
+     * @return The records, decoded one at a time as the stream pulls them. Call parallel() for a parallel stream.
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(new RecordSpliterator(0, count), false);
+    }
+
+    /**
+     * @return The record indexes 0 .. size-1, for queries that read fields with the getters instead of decoding records
+     */
+    public LongStream indexes() {
+        return LongStream.range(0, count);
+    }
+
+    /**
+     * @param fieldOffset Byte offset of a double field within the record
+     * @return That field of every record, without decoding the records
+     */
+    public DoubleStream doubles(int fieldOffset) {
+        return indexes().mapToDouble(index -> getDouble(index, fieldOffset));
+    }
+
+    public int getInt(long index, int fieldOffset) {
+        return segment(index).getInt(position(index) + fieldOffset);
+    }
+
+    public long getLong(long index, int fieldOffset) {
+        return segment(index).getLong(position(index) + fieldOffset);
+    }
+
+    public double getDouble(long index, int fieldOffset) {
+        return segment(index).getDouble(position(index) + fieldOffset);
+    }
+
+    /**
+     * Reads a string field, stored as a dictionary code.
+     */
+    public String getString(long index, int fieldOffset) {
+        return string(getInt(index, fieldOffset));
+    }
+
+    /**
+     * @return Number of distinct strings in the file
+     */
+    public int dictionarySize() {
+        return dictionary.length;
+    }
+
+    /**
+     * @return The string of a dictionary code, null for -1
+     */
+    public String string(int code) {
+        return code == -1 ? null : dictionary[code];
+    }
+
+    /**
+     * Closes the file. The mappings themselves are released by the garbage collector,
+     * so records must not be read after closing.
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing file = " + e.getMessage(), e);
+        }
+    }
+
+    private MappedByteBuffer segment(long index) {
+        return segments[(int) (index / recordsPerSegment)];
+    }
+
+    private int position(long index) {
+        return (int) (index % recordsPerSegment) * width;
+    }
+
+    private void checkIndex(long index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Record " + index + " of " + count);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void closeQuietly(FileChannel channel, Exception cause) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * Spliterator over a range of record indexes. Splits in halves with exact sizes on both sides,
+     * and decodes a record only when it is passed to the action.
+     */
+    private final class RecordSpliterator implements Spliterator<T> {
+        private long index;
+        private final long end;
+
+        RecordSpliterator(long index, long end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (index >= end) {
+                return false;
+            }
+            action.accept(format.read(RecordFile.this, index++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            long i = index;
+            index = end;
+            for (; i < end; i++) {
+                action.accept(format.read(RecordFile.this, i));
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            long middle = (index + end) >>> 1;
+            if (middle <= index) {
+                return null;
+            }
+            Spliterator<T> prefix = new RecordSpliterator(index, middle);
+            index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+        }
+    }
+}
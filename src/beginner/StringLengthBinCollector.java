@@ -1,11 +1,9 @@
 package beginner;
 
 import java.util.Arrays;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.function.Function;
 import java.util.stream.Collector;
-import java.util.stream.Collectors;
 
 /**
  * A collector that groups words by their length and counts the frequency of each length.
@@ -35,47 +33,58 @@ public class StringLengthBinCollector {
         }
     }
 
-    /**
-     * Transforms a line of text into a list of processed words.
-     * Processing steps:
-     * 1. Trims whitespace
-     * 2. Splits by whitespace
-     * 3. Converts to lowercase
-     * 4. Removes empty strings
-     * 5. Keeps only alphabetic words
-     * 
-     * @return A function that processes a line into a list of words
-     */
-    private static Function<String, List<String>> lineToWords() {
-        return line -> Arrays.stream(line.trim().split("\\s+"))
-                .map(String::toLowerCase)
-                .filter(word -> !word.isEmpty())
-                .filter(word -> word.matches("[a-z]+"))
-                .collect(Collectors.toList());
-    }
-
     /**
      * Creates a collector that groups words by their length and counts frequencies.
      * The collector pipeline:
-     * 1. Maps each line to a list of words using lineToWords()
-     * 2. Flattens all word lists into a single stream
-     * 3. Groups words by their length
-     * 4. Counts the frequency of each length
+     * 1. Tokenizes each line with the shared {@link WordTokenizer}
+     *    (split by whitespace, lowercase, keep only alphabetic words)
+     * 2. Counts each word in the bin of its length; no String is created per word
+     * 3. Converts the non-empty bins into the result map
      * 
      * @return A collector that produces a Map<Integer, Long> where:
      *         - Key: word length
      *         - Value: number of words with that length
      */
     private static Collector<String, ?, Map<Integer, Long>> stringLengthBinCollector() {
-        return Collectors.mapping(
-            lineToWords(),
-            Collectors.flatMapping(
-                List::stream,
-                Collectors.groupingBy(
-                    String::length,
-                    Collectors.counting()
-                )
-            )
+        return WordTokenizer.collectingWords(
+            LengthBins::new,
+            (bins, chars, offset, length) -> bins.add(length),
+            LengthBins::combine,
+            LengthBins::toMap
         );
     }
+
+    /**
+     * Word count per word length, indexed by length and grown on demand.
+     */
+    private static class LengthBins {
+        private long[] counts = new long[32];
+
+        void add(int length) {
+            if (length >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(length + 1, counts.length * 2));
+            }
+            counts[length]++;
+        }
+
+        LengthBins combine(LengthBins other) {
+            if (other.counts.length > counts.length) {
+                counts = Arrays.copyOf(counts, other.counts.length);
+            }
+            for (int i = 0; i < other.counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            return this;
+        }
+
+        Map<Integer, Long> toMap() {
+            Map<Integer, Long> result = new HashMap<>();
+            for (int length = 0; length < counts.length; length++) {
+                if (counts[length] > 0) {
+                    result.put(length, counts[length]);
+                }
+            }
+            return result;
+        }
+    }
 }
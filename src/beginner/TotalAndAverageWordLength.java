@@ -1,10 +1,9 @@
 package beginner;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
 import java.util.stream.Collector;
-import java.util.stream.Collectors;
 
 // Beginner Problem 3: Total and Average Word Length
 // Input: List<String> words
@@ -22,6 +21,7 @@ public class TotalAndAverageWordLength {
 
     /**
      * Creates a collector that calculates total and average word lengths.
+     * Lines are tokenized with the shared {@link WordTokenizer}, so no String is created per word.
      * Uses a custom collector with an array accumulator:
      * - acc[0] stores total length
      * - acc[1] stores word count
@@ -29,26 +29,20 @@ public class TotalAndAverageWordLength {
      * @return A collector that produces LengthStats containing total and average lengths
      */
     public static Collector<String, ?, LengthStats> totalAndAverageWordLengthCollector() {
-        return Collectors.mapping(
-            lineToWordsCollector(),
-            Collectors.flatMapping(
-                List::stream,
-                Collector.of(
-                    () -> new long[2],  // supplier: [totalLength, count]
-                    (acc, word) -> {    // accumulator
-                        acc[0] += word.length();
-                        acc[1]++;
-                    },
-                    (acc1, acc2) -> {   // combiner
-                        acc1[0] += acc2[0];
-                        acc1[1] += acc2[1];
-                        return acc1;
-                    },
-                    acc -> new LengthStats(  // finisher
-                        (int) acc[0],
-                        acc[1] == 0 ? 0 : (double) acc[0] / acc[1]
-                    )
-                )
+        return WordTokenizer.collectingWords(
+            () -> new long[2],  // supplier: [totalLength, count]
+            (acc, chars, offset, length) -> {    // accumulator: only the word length is needed
+                acc[0] += length;
+                acc[1]++;
+            },
+            (acc1, acc2) -> {   // combiner
+                acc1[0] += acc2[0];
+                acc1[1] += acc2[1];
+                return acc1;
+            },
+            acc -> new LengthStats(  // finisher
+                (int) acc[0],
+                acc[1] == 0 ? 0 : (double) acc[0] / acc[1]
             )
         );
     }
@@ -87,25 +81,25 @@ public class TotalAndAverageWordLength {
 
     /**
      * Transforms a line of text into a list of processed words.
-     * Processing pipeline:
-     * 1. Trims leading/trailing whitespace
-     * 2. Splits by single space
-     * 3. Converts all words to lowercase
-     * 4. Removes empty strings
-     * 5. Keeps only alphabetic words (a-z)
+     * Processing pipeline (see {@link WordTokenizer}):
+     * 1. Splits by whitespace
+     * 2. Converts all words to lowercase
+     * 3. Keeps only alphabetic words (a-z)
      * <a/>
      * Example:
-     * Input: "  This is a TEST!  "
+     * Input: "  This is a TEST  "
      * Output: ["this", "is", "a", "test"]
+     * <a/>
+     * The collector above no longer needs the intermediate list; this is kept for callers that want the words.
      * 
      * @return A function that processes a line into a list of clean, alphabetic words
      */
     public static Function<String, List<String>> lineToWordsCollector() {
-        return line -> Arrays.stream(line.trim().split(" "))
-                .map(String::toLowerCase)
-                .filter(word -> !word.isEmpty())
-                .filter(word -> word.matches("[a-z]+"))
-                .collect(Collectors.toList());
+        return line -> {
+            List<String> words = new ArrayList<>();
+            new WordTokenizer().tokenize(line, (chars, offset, length) -> words.add(new String(chars, offset, length)));
+            return words;
+        };
     }
 
 }
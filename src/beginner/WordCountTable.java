@@ -0,0 +1,327 @@
+package beginner;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Word frequency table specialized for counting words, used instead of
+ * groupingBy(identity(), counting()) on large inputs.
+ * <a/>
+ * It is an open-addressing hash table (linear probing) built from parallel primitive arrays:
+ * - the chars of every distinct word are stored once, back to back, in a shared char arena
+ * - per slot: offset and length of the word in the arena, its hash and its count as a long
+ * <a/>
+ * Counting a word that is already in the table allocates nothing: no boxed Long, no map Node
+ * and no String (words can be added directly from {@link WordTokenizer} spans).
+ * A distinct word costs its chars plus about 20 bytes per slot, instead of roughly
+ * 100 bytes for the Node, String, backing array and Long of a HashMap entry.
+ * <a/>
+ * {@link #asMap()} exposes the counts as a read-only Map<String, Long>; the Strings and
+ * Longs are only created when the view is read.
+ * <a/>
+ * Not thread-safe: use one table per collector container and {@link #merge} them.
+ */
+public class WordCountTable {
+    private static final int EMPTY = 0;             // hash value reserved for empty slots
+    private static final float MAX_LOAD = 0.6f;     // linear probing degrades quickly above ~0.7
+    private static final int CHARS_PER_WORD = 16;   // initial arena room per expected word
+    private static final int MAX_INITIAL_ARENA = 1024;
+
+    private char[] arena;
+    private int arenaSize;
+
+    private int[] hashes;       // EMPTY for free slots, otherwise the (never zero) hash of the word
+    private int[] offsets;      // start of the word in the arena
+    private int[] lengths;      // length of the word
+    private long[] counts;      // number of occurrences
+    private int size;           // number of distinct words
+    private int mask;           // capacity - 1, capacity is a power of two
+
+    public WordCountTable() {
+        this(64);
+    }
+
+    /**
+     * @param expectedWords Number of distinct words to size the table for. Small tables (e.g. one per
+     *                      group of a grouping) start with a few slots and a small arena, and grow on demand
+     */
+    public WordCountTable(int expectedWords) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedWords / MAX_LOAD)) - 1) << 1;
+        allocate(capacity);
+        arena = new char[(int) Math.min(MAX_INITIAL_ARENA, Math.max(CHARS_PER_WORD, (long) expectedWords * CHARS_PER_WORD))];
+    }
+
+    /**
+     * Counts one occurrence of the word chars[offset, offset + length).
+     * Matches {@link WordTokenizer.WordAccumulator} so it can be passed as {@code WordCountTable::add}.
+     */
+    public void add(char[] chars, int offset, int length) {
+        add(chars, offset, length, 1);
+    }
+
+    /**
+     * Counts one occurrence of the word.
+     */
+    public void add(CharSequence word) {
+        int length = word.length();
+        int hash = hash(word, length);
+        int slot = find(word, length, hash);
+        if (hashes[slot] == EMPTY) {
+            int offset = store(word, length);
+            insert(slot, hash, offset, length, 1);
+        } else {
+            counts[slot]++;
+        }
+    }
+
+    /**
+     * Adds {@code count} occurrences of the word chars[offset, offset + length).
+     */
+    public void add(char[] chars, int offset, int length, long count) {
+        int hash = hash(chars, offset, length);
+        int slot = find(chars, offset, length, hash);
+        if (hashes[slot] == EMPTY) {
+            int stored = store(chars, offset, length);
+            insert(slot, hash, stored, length, count);
+        } else {
+            counts[slot] += count;
+        }
+    }
+
+    /**
+     * Returns how many times the word was counted, or 0 if it never was.
+     */
+    public long count(CharSequence word) {
+        int length = word.length();
+        int slot = find(word, length, hash(word, length));
+        return hashes[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    /**
+     * @return Number of distinct words
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds all counts of the other table into this one.
+     * Used as the combiner when tables are built in parallel.
+     *
+     * @param other The table to merge in (not modified)
+     * @return This table with the combined counts
+     */
+    public WordCountTable merge(WordCountTable other) {
+        for (int slot = 0; slot < other.hashes.length; slot++) {
+            if (other.hashes[slot] != EMPTY) {
+                add(other.arena, other.offsets[slot], other.lengths[slot], other.counts[slot]);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns a read-only Map view of the counts.
+     * Lookups with any CharSequence key go straight to the table; iterating the view
+     * creates the String and Long of each entry as it is visited.
+     * The view reflects later changes to the table.
+     */
+    public Map<String, Long> asMap() {
+        return new AbstractMap<>() {
+            @Override
+            public Set<Entry<String, Long>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, Long>> iterator() {
+                        return new EntryIterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof CharSequence word && count(word) > 0;
+            }
+
+            @Override
+            public Long get(Object key) {
+                if (!(key instanceof CharSequence word)) {
+                    return null;
+                }
+                long count = count(word);
+                return count > 0 ? count : null;
+            }
+        };
+    }
+
+    /**
+     * Visits the occupied slots in table order.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, Long>> {
+        private int slot = nextOccupied(0);
+
+        @Override
+        public boolean hasNext() {
+            return slot < hashes.length;
+        }
+
+        @Override
+        public Map.Entry<String, Long> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, Long> entry = Map.entry(new String(arena, offsets[slot], lengths[slot]), counts[slot]);
+            slot = nextOccupied(slot + 1);
+            return entry;
+        }
+
+        private int nextOccupied(int from) {
+            int i = from;
+            while (i < hashes.length && hashes[i] == EMPTY) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    // Polynomial hash like String.hashCode() so char[] spans and CharSequences agree, then spread the bits
+    private static int hash(char[] chars, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + chars[i];
+        }
+        return spread(h);
+    }
+
+    private static int hash(CharSequence word, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + word.charAt(i);
+        }
+        return spread(h);
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        h ^= h >>> 16;
+        return h == EMPTY ? 1 : h;
+    }
+
+    /**
+     * Returns the slot holding the word, or the empty slot where it would be inserted.
+     */
+    private int find(char[] chars, int offset, int length, int hash) {
+        int slot = hash & mask;
+        while (hashes[slot] != EMPTY) {
+            if (hashes[slot] == hash && lengths[slot] == length
+                    && Arrays.equals(arena, offsets[slot], offsets[slot] + length, chars, offset, offset + length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int find(CharSequence word, int length, int hash) {
+        int slot = hash & mask;
+        while (hashes[slot] != EMPTY) {
+            if (hashes[slot] == hash && lengths[slot] == length && equalsAt(offsets[slot], word, length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean equalsAt(int offset, CharSequence word, int length) {
+        for (int i = 0; i < length; i++) {
+            if (arena[offset + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int slot, int hash, int offset, int length, long count) {
+        hashes[slot] = hash;
+        offsets[slot] = offset;
+        lengths[slot] = length;
+        counts[slot] = count;
+        if (++size > hashes.length * MAX_LOAD) {
+            rehash(hashes.length * 2);
+        }
+    }
+
+    private int store(char[] chars, int offset, int length) {
+        int stored = reserve(length);
+        System.arraycopy(chars, offset, arena, stored, length);
+        return stored;
+    }
+
+    private int store(CharSequence word, int length) {
+        int stored = reserve(length);
+        for (int i = 0; i < length; i++) {
+            arena[stored + i] = word.charAt(i);
+        }
+        return stored;
+    }
+
+    private int reserve(int length) {
+        if (arenaSize + length > arena.length) {
+            long grown = Math.max((long) arena.length * 2, (long) arenaSize + length);
+            if (grown > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Word arena is full: " + arenaSize + " chars");
+            }
+            arena = Arrays.copyOf(arena, (int) grown);
+        }
+        int offset = arenaSize;
+        arenaSize += length;
+        return offset;
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Moves every entry to a table of the new capacity. The arena is unchanged.
+     */
+    private void rehash(int capacity) {
+        int[] oldHashes = hashes;
+        int[] oldOffsets = offsets;
+        int[] oldLengths = lengths;
+        long[] oldCounts = counts;
+        allocate(capacity);
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != EMPTY) {
+                int slot = oldHashes[i] & mask;
+                while (hashes[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                offsets[slot] = oldOffsets[i];
+                lengths[slot] = oldLengths[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
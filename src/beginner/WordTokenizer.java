@@ -0,0 +1,186 @@
+package beginner;
+
+import java.nio.ByteBuffer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Shared word tokenizer used by the word counting collectors.
+ * <a/>
+ * A word is a run of non-whitespace characters (the same whitespace as the regex "\\s":
+ * space, \t, \n, \x0B, \f, \r) that consists only of ASCII letters.
+ * Words are lower-cased while scanning, and a run that contains any other character
+ * (digits, punctuation, non-ASCII letters) is skipped as a whole.
+ * This is the same result as
+ * <pre>
+ *     Arrays.stream(line.split("\\s+"))
+ *           .map(String::toLowerCase)
+ *           .filter(word -> !word.isEmpty())
+ *           .filter(word -> word.matches("[a-z]+"))
+ * </pre>
+ * but the input is scanned once, and no String or List is created per word:
+ * each word is handed to a {@link WordSink} as a span of a reusable char buffer.
+ * <a/>
+ * A tokenizer instance owns that buffer, so it must not be shared between threads.
+ * Collectors should keep one tokenizer per result container (see {@link #collectingWords}).
+ */
+public class WordTokenizer {
+
+    /**
+     * Receives the words found by the tokenizer.
+     * The chars are only valid during the call; copy them if they are needed afterwards.
+     */
+    @FunctionalInterface
+    public interface WordSink {
+        void accept(char[] chars, int offset, int length);
+    }
+
+    /**
+     * Accumulates a word into a mutable result container.
+     * Same contract as {@link WordSink}, plus the container to accumulate into.
+     */
+    @FunctionalInterface
+    public interface WordAccumulator<A> {
+        void accept(A container, char[] chars, int offset, int length);
+    }
+
+    private char[] buffer = new char[32];  // lower-cased chars of the current word, grown on demand
+
+    /**
+     * Scans the text once and passes every lower-cased alphabetic word to the sink.
+     *
+     * @param text The text to tokenize, usually a single line
+     * @param sink Receives each word as (chars, offset, length)
+     */
+    public void tokenize(CharSequence text, WordSink sink) {
+        int length = text.length();
+        int wordLength = 0;
+        boolean alphabetic = true;  // false once the current run has a non-letter char
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (isWhitespace(c)) {
+                if (wordLength > 0 && alphabetic) {
+                    sink.accept(buffer, 0, wordLength);
+                }
+                wordLength = 0;
+                alphabetic = true;
+            } else if (alphabetic) {
+                char lower = (char) (c | 0x20);  // ASCII upper case to lower case, leaves lower case as is
+                if (lower >= 'a' && lower <= 'z') {
+                    append(wordLength++, lower);
+                } else {
+                    alphabetic = false;  // skip the rest of this run
+                }
+            }
+        }
+        if (wordLength > 0 && alphabetic) {
+            sink.accept(buffer, 0, wordLength);
+        }
+    }
+
+    /**
+     * Scans ASCII or UTF-8 encoded text once and passes every lower-cased alphabetic word to the sink.
+     * Bytes of multibyte UTF-8 characters are never ASCII letters, so words containing them are skipped
+     * exactly like in {@link #tokenize(CharSequence, WordSink)}.
+     * The buffer's position is not changed.
+     *
+     * @param text The bytes to tokenize, from position to limit
+     * @param sink Receives each word as (chars, offset, length)
+     */
+    public void tokenize(ByteBuffer text, WordSink sink) {
+        int limit = text.limit();
+        int wordLength = 0;
+        boolean alphabetic = true;
+        for (int i = text.position(); i < limit; i++) {
+            byte b = text.get(i);
+            if (isWhitespace((char) b)) {
+                if (wordLength > 0 && alphabetic) {
+                    sink.accept(buffer, 0, wordLength);
+                }
+                wordLength = 0;
+                alphabetic = true;
+            } else if (alphabetic) {
+                int lower = b | 0x20;  // negative bytes (non-ASCII) stay negative and are rejected below
+                if (lower >= 'a' && lower <= 'z') {
+                    append(wordLength++, (char) lower);
+                } else {
+                    alphabetic = false;
+                }
+            }
+        }
+        if (wordLength > 0 && alphabetic) {
+            sink.accept(buffer, 0, wordLength);
+        }
+    }
+
+    /**
+     * Creates a collector over lines of text that accumulates each word directly into a container.
+     * Every container gets its own tokenizer, so the collector is safe to use on parallel streams
+     * and with {@link FileManager#readFileParallel}.
+     *
+     * @param <A> The mutable result container type
+     * @param <R> The final result type
+     * @param supplier Creates a new result container
+     * @param accumulator Adds one word span to a container
+     * @param combiner Merges two containers, returning the merged one
+     * @param finisher Turns the container into the final result
+     * @return A collector that tokenizes each line and accumulates its words
+     */
+    public static <A, R> Collector<String, ?, R> collectingWords(
+            Supplier<A> supplier,
+            WordAccumulator<A> accumulator,
+            BinaryOperator<A> combiner,
+            Function<A, R> finisher) {
+        return Collector.<String, WordContainer<A>, R>of(
+                () -> new WordContainer<>(supplier.get(), accumulator),  // Supplier: container plus its own tokenizer
+                WordContainer::acceptLine,                               // Accumulator: tokenizes one line
+                (c1, c2) -> {                                            // Combiner: merges the wrapped containers
+                    c1.value = combiner.apply(c1.value, c2.value);
+                    return c1;
+                },
+                c -> finisher.apply(c.value)                             // Finisher: unwraps and finishes
+        );
+    }
+
+    /**
+     * Result container of {@link #collectingWords}: the caller's container plus a tokenizer
+     * and a sink bound to it, created once per container instead of once per line.
+     */
+    private static class WordContainer<A> implements WordSink {
+        private final WordTokenizer tokenizer = new WordTokenizer();
+        private final WordAccumulator<A> accumulator;
+        private A value;
+
+        WordContainer(A value, WordAccumulator<A> accumulator) {
+            this.value = value;
+            this.accumulator = accumulator;
+        }
+
+        void acceptLine(String line) {
+            tokenizer.tokenize(line, this);
+        }
+
+        @Override
+        public void accept(char[] chars, int offset, int length) {
+            accumulator.accept(value, chars, offset, length);
+        }
+    }
+
+    private void append(int index, char c) {
+        if (index == buffer.length) {
+            char[] grown = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, index);
+            buffer = grown;
+        }
+        buffer[index] = c;
+    }
+
+    /**
+     * Same characters as the regex class "\\s".
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');  // \t \n \x0B \f \r are contiguous
+    }
+}
@@ -1,7 +1,11 @@
 package intermediate;
 
+import advance.PartitionedGrouping;
+
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 // Problem 2: Average Grade Per Subject
@@ -50,6 +54,24 @@ public class AvgGradePerSubject {
         );
     }
 
+    /**
+     * Same as averageGradePerSubject, grouped in parallel by subject partitions instead of merging per-thread maps.
+     * Worth it with many distinct subjects (e.g. course codes across a whole university); see
+     * {@link PartitionedGrouping}.
+     *
+     * @param students List of students with their subjects and grades
+     * @return Read-only map where:
+     *         - Key: subject name
+     *         - Value: average grade for that subject
+     */
+    public static Map<String, Double> averageGradePerSubjectPartitioned(List<Student> students) {
+        return PartitionedGrouping.groupingBy(
+                students,
+                Student::getSubject,
+                Collectors.averagingDouble(Student::getGrade)
+        );
+    }
+
     public static void main(String[] args) {
         // Problem 2
         List<Student> students = List.of(
@@ -59,5 +81,20 @@ public class AvgGradePerSubject {
                 new Student("English", 100)
         );
         System.out.println("Problem 2: " + averageGradePerSubject(students));
+        System.out.println("Problem 2 (partitioned): " + averageGradePerSubjectPartitioned(students));
+
+        // Verification
+        assert averageGradePerSubjectPartitioned(students).equals(averageGradePerSubject(students));
+
+        // Many distinct subjects, grouped by partitions in parallel
+        List<Student> courses = new ArrayList<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 500_000; i++) {
+            courses.add(new Student("COURSE-" + random.nextInt(100_000), random.nextInt(101)));
+        }
+        Map<String, Double> partitioned = averageGradePerSubjectPartitioned(courses);
+        assert partitioned.equals(averageGradePerSubject(courses));   // same per-subject order, so the same sums
+        assert partitioned.size() == averageGradePerSubject(courses).size();
+        System.out.println("\nTest Passed! ✅");
     }
 }
@@ -0,0 +1,364 @@
+package intermediate;
+
+import intermediate.MostRecentTransactionByMonth.Transaction;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Picks one winning transaction per calendar bucket (day, week, month or quarter) without a HashMap.
+ * <a/>
+ * A bucket is a dense int counted from the epoch (e.g. epoch month = (year - 1970) * 12 + month - 1),
+ * so the buckets of a date range are consecutive and index straight into parallel primitive arrays:
+ * - epochDay[slot]: date of the current winner
+ * - amount[slot]: amount of the current winner
+ * - row[slot]: index of the winner in the source list, -1 for an empty bucket
+ * The arrays cover the range of buckets seen so far and grow at either end when needed.
+ * Nothing is allocated per transaction: no YearMonth key, no boxed Double, no LocalDate comparison.
+ * <a/>
+ * The result is exposed as a read-only Map view over the arrays; YearMonth / LocalDate keys and the
+ * entries are only created when the view is iterated.
+ * <a/>
+ * Ties: when two transactions are equally good, the one with the lower row index wins. That is the
+ * encounter order, the same choice as Collectors.maxBy on a sequential stream, and it also makes
+ * parallel aggregation deterministic.
+ */
+public class CalendarBucketAggregator {
+
+    /**
+     * Size of a bucket. Weeks start on Monday.
+     */
+    public enum Granularity {
+        DAY, WEEK, MONTH, QUARTER;
+
+        /**
+         * Dense bucket number of a date.
+         */
+        public int bucketOf(LocalDate date) {
+            return switch (this) {
+                case DAY -> (int) date.toEpochDay();
+                case WEEK -> (int) Math.floorDiv(date.toEpochDay() + 3, 7);  // 1970-01-01 is a Thursday
+                case MONTH -> epochMonth(date.getYear(), date.getMonthValue());
+                case QUARTER -> (date.getYear() - 1970) * 4 + (date.getMonthValue() - 1) / 3;
+            };
+        }
+
+        /**
+         * Dense bucket number of an epoch day, the same as bucketOf(LocalDate.ofEpochDay(epochDay)),
+         * with integer arithmetic only: for scans over a column of epoch days.
+         */
+        public int bucketOfEpochDay(long epochDay) {
+            return switch (this) {
+                case DAY -> (int) epochDay;
+                case WEEK -> (int) Math.floorDiv(epochDay + 3, 7);
+                case MONTH -> epochMonthOfEpochDay(epochDay);
+                case QUARTER -> Math.floorDiv(epochMonthOfEpochDay(epochDay), 3);
+            };
+        }
+
+        /**
+         * First day of a bucket.
+         */
+        public LocalDate startOf(int bucket) {
+            return switch (this) {
+                case DAY -> LocalDate.ofEpochDay(bucket);
+                case WEEK -> LocalDate.ofEpochDay(bucket * 7L - 3);
+                case MONTH -> LocalDate.of(1970 + Math.floorDiv(bucket, 12), Math.floorMod(bucket, 12) + 1, 1);
+                case QUARTER -> LocalDate.of(1970 + Math.floorDiv(bucket, 4), Math.floorMod(bucket, 4) * 3 + 1, 1);
+            };
+        }
+
+        /**
+         * Epoch month of a YearMonth, the inverse of the MONTH bucket start.
+         */
+        static int epochMonth(YearMonth month) {
+            return epochMonth(month.getYear(), month.getMonthValue());
+        }
+
+        /**
+         * Months since 1970-01: the MONTH bucket of a year and month (1 to 12).
+         */
+        static int epochMonth(int year, int month) {
+            return (year - 1970) * 12 + month - 1;
+        }
+
+        /**
+         * Epoch month of an epoch day (the days-to-civil-date algorithm on 400-year eras of 146097 days,
+         * with years starting in March).
+         */
+        private static int epochMonthOfEpochDay(long epochDay) {
+            long z = epochDay + 719468;                                                // days since 0000-03-01
+            long era = Math.floorDiv(z, 146097);
+            long dayOfEra = z - era * 146097;                                          // [0, 146096]
+            long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+            long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            long marchBasedMonth = (5 * dayOfYear + 2) / 153;                          // 0 = March, 11 = February
+            long year = yearOfEra + era * 400 + (marchBasedMonth >= 10 ? 1 : 0);
+            long month = marchBasedMonth < 10 ? marchBasedMonth + 3 : marchBasedMonth - 9;  // 1..12
+            return epochMonth((int) year, (int) month);
+        }
+    }
+
+    /**
+     * Which transaction wins a bucket.
+     */
+    public enum Winner {
+        /** Latest date. */
+        MOST_RECENT,
+        /** Highest amount, then latest date. */
+        HIGHEST_AMOUNT;
+
+        boolean beats(long epochDay, double amount, long bestEpochDay, double bestAmount) {
+            if (this == HIGHEST_AMOUNT) {
+                int byAmount = Double.compare(amount, bestAmount);
+                if (byAmount != 0) {
+                    return byAmount > 0;
+                }
+            }
+            return epochDay > bestEpochDay;
+        }
+
+        boolean ties(long epochDay, double amount, long bestEpochDay, double bestAmount) {
+            return epochDay == bestEpochDay && (this == MOST_RECENT || Double.compare(amount, bestAmount) == 0);
+        }
+    }
+
+    private final Granularity granularity;
+    private final Winner winner;
+
+    private int firstBucket;             // bucket of slot 0
+    private long[] epochDays = new long[0];
+    private double[] amounts = new double[0];
+    private int[] rows = new int[0];
+    private int size;                    // number of non-empty buckets
+
+    public CalendarBucketAggregator(Granularity granularity, Winner winner) {
+        this.granularity = granularity;
+        this.winner = winner;
+    }
+
+    /**
+     * Aggregates the transactions of a list, in parallel for large lists.
+     *
+     * @param transactions Transactions to aggregate; the result refers to them by index
+     * @param granularity Size of a bucket
+     * @param winner Which transaction wins a bucket
+     * @return The aggregator holding one winner per non-empty bucket
+     */
+    public static CalendarBucketAggregator aggregate(List<Transaction> transactions, Granularity granularity, Winner winner) {
+        IntStream rowIndexes = IntStream.range(0, transactions.size());
+        if (transactions.size() >= 1 << 16) {
+            rowIndexes = rowIndexes.parallel();
+        }
+        return rowIndexes.collect(
+                () -> new CalendarBucketAggregator(granularity, winner),
+                (aggregator, row) -> aggregator.offer(transactions.get(row), row),
+                CalendarBucketAggregator::merge
+        );
+    }
+
+    /**
+     * Offers one transaction, found at the given index of the source list.
+     */
+    public void offer(Transaction transaction, int row) {
+        LocalDate date = transaction.getDate();
+        offer(granularity.bucketOf(date), date.toEpochDay(), transaction.getAmount(), row);
+    }
+
+    /**
+     * Offers one transaction by its primitive columns.
+     *
+     * @param bucket Dense bucket number, see {@link Granularity#bucketOf}
+     * @param epochDay Date of the transaction as epoch day
+     * @param amount Amount of the transaction
+     * @param row Index of the transaction in its source
+     */
+    public void offer(int bucket, long epochDay, double amount, int row) {
+        int slot = slotOf(bucket);
+        int best = rows[slot];
+        if (best < 0) {
+            size++;
+        } else if (!winner.beats(epochDay, amount, epochDays[slot], amounts[slot])
+                && !(winner.ties(epochDay, amount, epochDays[slot], amounts[slot]) && row < best)) {
+            return;
+        }
+        epochDays[slot] = epochDay;
+        amounts[slot] = amount;
+        rows[slot] = row;
+    }
+
+    /**
+     * Offers every winner of the other aggregator to this one.
+     */
+    public void merge(CalendarBucketAggregator other) {
+        for (int slot = 0; slot < other.rows.length; slot++) {
+            if (other.rows[slot] >= 0) {
+                offer(other.firstBucket + slot, other.epochDays[slot], other.amounts[slot], other.rows[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return Number of non-empty buckets
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Read-only view keyed by month. Only valid for {@link Granularity#MONTH}.
+     *
+     * @param source The list the row indexes refer to
+     */
+    public Map<YearMonth, Transaction> asYearMonthMap(List<Transaction> source) {
+        return asYearMonthMap(source::get);
+    }
+
+    /**
+     * Read-only view keyed by month, for rows that are not in a list (e.g. the rows of a column store).
+     * Only valid for {@link Granularity#MONTH}.
+     *
+     * @param source Gives the transaction of a row index
+     */
+    public Map<YearMonth, Transaction> asYearMonthMap(IntFunction<Transaction> source) {
+        if (granularity != Granularity.MONTH) {
+            throw new IllegalStateException("YearMonth keys need MONTH granularity, not " + granularity);
+        }
+        return new BucketMap<>(source, bucket -> YearMonth.from(granularity.startOf(bucket)),
+                key -> key instanceof YearMonth month ? Granularity.epochMonth(month) : null);
+    }
+
+    /**
+     * Read-only view keyed by the first day of each bucket, for any granularity.
+     *
+     * @param source The list the row indexes refer to
+     */
+    public Map<LocalDate, Transaction> asMap(List<Transaction> source) {
+        return new BucketMap<>(source::get, granularity::startOf,
+                key -> key instanceof LocalDate date && date.equals(granularity.startOf(granularity.bucketOf(date)))
+                        ? granularity.bucketOf(date) : null);
+    }
+
+    /**
+     * Map view over the occupied slots. Keys are created from the bucket number when iterated,
+     * and lookups turn the key back into a bucket number.
+     */
+    private class BucketMap<K> extends AbstractMap<K, Transaction> {
+        private final IntFunction<Transaction> source;
+        private final Function<Integer, K> keyOf;
+        private final Function<Object, Integer> bucketOfKey;  // null if the key is not a bucket key
+
+        BucketMap(IntFunction<Transaction> source, Function<Integer, K> keyOf, Function<Object, Integer> bucketOfKey) {
+            this.source = source;
+            this.keyOf = keyOf;
+            this.bucketOfKey = bucketOfKey;
+        }
+
+        @Override
+        public Transaction get(Object key) {
+            Integer bucket = bucketOfKey.apply(key);
+            if (bucket == null) {
+                return null;
+            }
+            int slot = bucket - firstBucket;
+            return slot >= 0 && slot < rows.length && rows[slot] >= 0 ? source.apply(rows[slot]) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Entry<K, Transaction>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Entry<K, Transaction>> iterator() {
+                    return new Iterator<>() {
+                        private int slot = next(0);
+
+                        private int next(int from) {
+                            int i = from;
+                            while (i < rows.length && rows[i] < 0) {
+                                i++;
+                            }
+                            return i;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return slot < rows.length;
+                        }
+
+                        @Override
+                        public Entry<K, Transaction> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<K, Transaction> entry = Map.entry(keyOf.apply(firstBucket + slot), source.apply(rows[slot]));
+                            slot = next(slot + 1);
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns the slot of a bucket, growing the arrays at either end if the bucket is outside the range.
+     */
+    private int slotOf(int bucket) {
+        if (rows.length == 0) {
+            firstBucket = bucket;
+            resize(0, 16);
+        }
+        int slot = bucket - firstBucket;
+        if (slot < 0) {
+            int shift = Math.max(-slot, rows.length);  // grow by at least the current size
+            resize(shift, rows.length + shift);
+            firstBucket -= shift;
+            slot += shift;
+        } else if (slot >= rows.length) {
+            resize(0, Math.max(slot + 1, rows.length * 2));
+        }
+        return slot;
+    }
+
+    /**
+     * Copies the arrays into new arrays of the given length, starting at the given offset.
+     */
+    private void resize(int offset, int length) {
+        long[] newEpochDays = new long[length];
+        double[] newAmounts = new double[length];
+        int[] newRows = new int[length];
+        Arrays.fill(newRows, -1);
+        System.arraycopy(epochDays, 0, newEpochDays, offset, epochDays.length);
+        System.arraycopy(amounts, 0, newAmounts, offset, amounts.length);
+        System.arraycopy(rows, 0, newRows, offset, rows.length);
+        epochDays = newEpochDays;
+        amounts = newAmounts;
+        rows = newRows;
+    }
+}
@@ -1,8 +1,10 @@
 package intermediate;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Function;
 import java.util.stream.Collector;
+import java.util.stream.DoubleStream;
 
 public class CustomSummaryStatisticsCollector {
     // Problem 5: Custom Summary Statistics Collector
@@ -27,6 +29,36 @@ public class CustomSummaryStatisticsCollector {
             max = Math.max(max, value);
         }
 
+        /**
+         * Accumulates values[from, to) in one tight loop over the primitive array.
+         * Same result as calling accept for each value (the sum may differ in the last bits).
+         * Two independent sum/min/max lanes let consecutive values be added without waiting on each other.
+         */
+        public void acceptAll(double[] values, int from, int to) {
+            Objects.checkFromToIndex(from, to, values.length);
+            double sum0 = 0, sum1 = 0;
+            double min0 = min, min1 = min;
+            double max0 = max, max1 = max;
+            int i = from;
+            for (; i + 1 < to; i += 2) {
+                sum0 += values[i];
+                sum1 += values[i + 1];
+                min0 = Math.min(min0, values[i]);
+                min1 = Math.min(min1, values[i + 1]);
+                max0 = Math.max(max0, values[i]);
+                max1 = Math.max(max1, values[i + 1]);
+            }
+            if (i < to) {  // odd number of values
+                sum0 += values[i];
+                min0 = Math.min(min0, values[i]);
+                max0 = Math.max(max0, values[i]);
+            }
+            count += to - from;
+            sum += sum0 + sum1;
+            min = Math.min(min0, min1);
+            max = Math.max(max0, max1);
+        }
+
         /**
          * Combines this Stats object with another.
          * Used when merging statistics from parallel streams.
@@ -68,6 +100,17 @@ public class CustomSummaryStatisticsCollector {
         );
     }
 
+    /**
+     * Calculates the same summary statistics for a primitive DoubleStream, without boxing each value
+     * into a Double as {@link #statsCollector()} does.
+     *
+     * @param values The values to summarize (may be parallel)
+     * @return A Stats object containing the summary statistics
+     */
+    public static Stats summarize(DoubleStream values) {
+        return values.collect(Stats::new, Stats::accept, Stats::combine);
+    }
+
     public static void main(String[] args) {
         // Problem 5: Test the custom collector with sample data
         List<Double> values = List.of(10.0, 20.0, 30.0);
@@ -84,5 +127,12 @@ public class CustomSummaryStatisticsCollector {
                          ", avg=" + stats.getAvg() + 
                          ", min=" + stats.min + 
                          ", max=" + stats.max);
+
+        // Same statistics without boxing: from a DoubleStream and from a primitive array batch
+        Stats streamStats = summarize(DoubleStream.of(10.0, 20.0, 30.0));
+        Stats batchStats = new Stats();
+        batchStats.acceptAll(new double[] { 10.0, 20.0, 30.0 }, 0, 3);
+        assert streamStats.count == 3 && streamStats.sum == 60.0 && streamStats.min == 10.0 && streamStats.max == 30.0;
+        assert batchStats.count == 3 && batchStats.sum == 60.0 && batchStats.min == 10.0 && batchStats.max == 30.0;
     }
 }
@@ -1,9 +1,17 @@
 package intermediate;
 
+import advance.PartitionedGrouping;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IntSummaryStatistics;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 // Problem 1: Most Frequent Word by First Letter
 // Input: List<String> words
@@ -12,6 +20,7 @@ import java.util.stream.Collectors;
 // Input: ["apple", "ant", "banana", "bat", "bat", "cat"]
 // Output: {a=apple, b=bat, c=cat}
 // Note: For letter 'b', "bat" is chosen because it appears twice
+// Note: For letter 'a', "apple" and "ant" both appear once: on a tie, the word that appears first in the input wins
 public class MostFrequentWordByFirstLetter {
     public static Map<Character, String> mostFrequentWordByFirstLetter(List<String> words) {
         return words.stream().collect(
@@ -23,9 +32,11 @@ public class MostFrequentWordByFirstLetter {
                                 // Group words by the word itself and count occurrences
                                 Collectors.groupingBy(
                                         Function.identity(),  // Use the word as the key
+                                        LinkedHashMap::new,   // Keep the words in order of first appearance
                                         Collectors.counting() // Count how many times each word appears
                                 ),
-                                // Find the word with the highest count
+                                // Find the word with the highest count; max keeps the first of equal words,
+                                // which is the word that appeared first
                                 wordCount -> wordCount.entrySet().stream()
                                         .max(Map.Entry.comparingByValue())  // Get entry with max count
                                         .map(Map.Entry::getKey)            // Extract the word
@@ -35,9 +46,70 @@ public class MostFrequentWordByFirstLetter {
         );
     }
 
+    /**
+     * Same as mostFrequentWordByFirstLetter for large word lists, with the same tie-break (first appearance).
+     * The expensive part is counting the words (many distinct keys), so that step is grouped in parallel by
+     * word partitions (see {@link PartitionedGrouping}) instead of merging a word count map per thread;
+     * picking the winner per letter then only touches the distinct words.
+     * The positions of the words are grouped rather than the words, so each word gets its count and the
+     * position of its first appearance from one summary.
+     *
+     * @param words Words to analyze (not empty)
+     * @return Map where:
+     *         - Key: first letter
+     *         - Value: most frequent word starting with that letter
+     */
+    public static Map<Character, String> mostFrequentWordByFirstLetterPartitioned(List<String> words) {
+        List<Integer> positions = IntStream.range(0, words.size()).boxed().toList();
+        Map<String, IntSummaryStatistics> counts = PartitionedGrouping.groupingBy(
+                positions, words::get, Collectors.summarizingInt(position -> position));
+        Comparator<Map.Entry<String, IntSummaryStatistics>> byCount = Comparator.comparingLong(entry -> entry.getValue().getCount());
+        Comparator<Map.Entry<String, IntSummaryStatistics>> byFirstPosition = Comparator.comparingInt(entry -> entry.getValue().getMin());
+        return counts.entrySet().stream().collect(
+                Collectors.groupingBy(
+                        entry -> entry.getKey().charAt(0),
+                        Collectors.collectingAndThen(
+                                // Highest count first, then the word that appeared first
+                                Collectors.maxBy(byCount.thenComparing(byFirstPosition.reversed())),
+                                best -> best.get().getKey()
+                        )
+                )
+        );
+    }
+
     public static void main(String[] args) {
         // Problem 1
         List<String> words = List.of("apple", "ant", "banana", "bat", "bat", "cat");
         System.out.println("Problem 1: " + mostFrequentWordByFirstLetter(words));
+        System.out.println("Problem 1 (partitioned): " + mostFrequentWordByFirstLetterPartitioned(words));
+
+        // Verification
+        // 'a' is a tie (apple and ant appear once each): apple appears first
+        Map<Character, String> expected = Map.of('a', "apple", 'b', "bat", 'c', "cat");
+        assert mostFrequentWordByFirstLetter(words).equals(expected);
+        assert mostFrequentWordByFirstLetterPartitioned(words).equals(expected);
+        assert mostFrequentWordByFirstLetter(List.of("ant", "apple")).get('a').equals("ant");
+        assert mostFrequentWordByFirstLetterPartitioned(List.of("ant", "apple")).get('a').equals("ant");
+
+        // A large vocabulary where every letter has one clear winner
+        List<String> many = new ArrayList<>();
+        for (int i = 0; i < 300_000; i++) {
+            char letter = (char) ('a' + i % 26);
+            many.add(letter + "w" + (i % 40_000));
+            if (i % 3 == 0) {
+                many.add(letter + "top");
+            }
+        }
+        assert mostFrequentWordByFirstLetterPartitioned(many).equals(mostFrequentWordByFirstLetter(many));
+        assert mostFrequentWordByFirstLetterPartitioned(many).get('q').equals("qtop");
+
+        // Many ties: few occurrences of many words
+        Random random = new Random(5);
+        List<String> ties = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            ties.add((char) ('a' + random.nextInt(26)) + "t" + random.nextInt(20_000));
+        }
+        assert mostFrequentWordByFirstLetterPartitioned(ties).equals(mostFrequentWordByFirstLetter(ties));
+        System.out.println("\nTest Passed! ✅");
     }
 }
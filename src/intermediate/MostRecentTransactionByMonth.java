@@ -2,6 +2,7 @@ package intermediate;
 
 import java.time.LocalDate;
 import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -115,6 +116,37 @@ public class MostRecentTransactionByMonth {
         );
     }
 
+    /**
+     * Dense version of mostRecentTransactionByMonth.
+     * Months are int buckets in primitive arrays (see {@link CalendarBucketAggregator}), so no YearMonth key,
+     * boxed date or comparator is created per transaction; the returned map is a view over those arrays.
+     * Same result as mostRecentTransactionByMonth, including ties (the first transaction in the list wins).
+     *
+     * @param transactions List of transactions to analyze
+     * @return Read-only map where:
+     *         - Key: YearMonth
+     *         - Value: Most recent transaction in that month
+     */
+    public static Map<YearMonth, Transaction> mostRecentTransactionByMonthDense(List<Transaction> transactions) {
+        return CalendarBucketAggregator
+                .aggregate(transactions, CalendarBucketAggregator.Granularity.MONTH, CalendarBucketAggregator.Winner.MOST_RECENT)
+                .asYearMonthMap(transactions);
+    }
+
+    /**
+     * Dense version of highestAmountTransactionByMonth, see mostRecentTransactionByMonthDense.
+     *
+     * @param transactions List of transactions to analyze
+     * @return Read-only map where:
+     *         - Key: YearMonth
+     *         - Value: Transaction with the highest amount in that month (most recent if tied)
+     */
+    public static Map<YearMonth, Transaction> highestAmountTransactionByMonthDense(List<Transaction> transactions) {
+        return CalendarBucketAggregator
+                .aggregate(transactions, CalendarBucketAggregator.Granularity.MONTH, CalendarBucketAggregator.Winner.HIGHEST_AMOUNT)
+                .asYearMonthMap(transactions);
+    }
+
     public static void main(String[] args) {
         // Problem 3: Transaction Analysis
         // Test data with transactions across different months
@@ -133,5 +165,42 @@ public class MostRecentTransactionByMonth {
 
         // B: Find transaction with the highest amount for each month
         System.out.println("Problem 3 B: " + highestAmountTransactionByMonth(transactions));
+
+        // C: Dense calendar buckets, same answers without a HashMap
+        System.out.println("Problem 3 A (dense version)     : " + mostRecentTransactionByMonthDense(transactions));
+        System.out.println("Problem 3 B (dense version)     : " + highestAmountTransactionByMonthDense(transactions));
+
+        // Verification
+        assert mostRecentTransactionByMonthDense(transactions).equals(mostRecentTransactionByMonth(transactions));
+        assert highestAmountTransactionByMonthDense(transactions).equals(highestAmountTransactionByMonth(transactions));
+        assert mostRecentTransactionByMonthDense(transactions).get(YearMonth.of(2023, 3)).getDate().getDayOfMonth() == 21;
+        assert highestAmountTransactionByMonthDense(transactions).get(YearMonth.of(2023, 2)).getAmount() == 150;
+        assert mostRecentTransactionByMonthDense(transactions).get(YearMonth.of(2023, 4)) == null;
+
+        // A year of daily transactions, including the parallel path and the other granularities
+        List<Transaction> year = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            year.add(new Transaction(LocalDate.of(2022, 12, 1).plusDays(i % 400), "Y" + i, (i * 7919) % 1000));
+        }
+        assert mostRecentTransactionByMonthDense(year).equals(mostRecentTransactionByMonth(year));
+        assert highestAmountTransactionByMonthDense(year).equals(highestAmountTransactionByMonth(year));
+        for (CalendarBucketAggregator.Granularity granularity : CalendarBucketAggregator.Granularity.values()) {
+            Map<LocalDate, Transaction> buckets = CalendarBucketAggregator
+                    .aggregate(year, granularity, CalendarBucketAggregator.Winner.HIGHEST_AMOUNT)
+                    .asMap(year);
+            Map<LocalDate, Transaction> expected = year.stream().collect(Collectors.groupingBy(
+                    t -> granularity.startOf(granularity.bucketOf(t.getDate())),
+                    Collectors.collectingAndThen(
+                            Collectors.maxBy(Comparator.comparing(Transaction::getAmount).thenComparing(Transaction::getDate)),
+                            Optional::get)));
+            assert buckets.equals(expected) : granularity;
+            // The integer arithmetic on epoch days agrees with LocalDate, across leap years and before 1970
+            for (long epochDay = -800_000; epochDay <= 800_000; epochDay += 7) {
+                assert granularity.bucketOfEpochDay(epochDay) == granularity.bucketOf(LocalDate.ofEpochDay(epochDay)) : epochDay;
+            }
+        }
+        assert CalendarBucketAggregator.Granularity.WEEK.startOf(
+                CalendarBucketAggregator.Granularity.WEEK.bucketOf(LocalDate.of(2023, 3, 15))).equals(LocalDate.of(2023, 3, 13));  // Monday
+        System.out.println("\nTest Passed! ✅");
     }
 }
@@ -0,0 +1,199 @@
+package intermediate;
+
+import intermediate.TopNProductsPerCategory.Product;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Incrementally maintained top-N ranking per category, for ratings that change all the time.
+ * Instead of re-running {@link TopNProductsPerCategory#topNProductsPerCategory} over the whole catalog
+ * after every change, each category keeps its products in a skip list ordered by rating:
+ * - insert, update (rating or category) and remove of a product: O(log n)
+ * - top N of a category: O(N), by walking the head of the skip list
+ * <a/>
+ * Products are identified by a product id supplied by the caller. Equal ratings are ordered by
+ * product id so the ranking is deterministic.
+ * <a/>
+ * Concurrency: one writer at a time (the write methods are synchronized, so accidental concurrent
+ * writers are serialized rather than corrupting the index), any number of readers without locks.
+ * The writer bumps a version counter before and after each change (a seqlock): a reader walks the
+ * skip list optimistically and keeps its result only if no write started or finished meanwhile,
+ * so it never sees a product twice or misses one that is being moved. After a few failed attempts
+ * under heavy writing the reader takes the writer's lock once, so it always makes progress.
+ */
+public class ProductLeaderboard {
+
+    /**
+     * One ranked product. The version tells apart the old and new entry of a product while it is being
+     * updated, even if its rating did not change; the id index points at the current entry.
+     */
+    private record Entry(String productId, Product product, long version) {}
+
+    // Highest rating first, then product id for a deterministic order of equal ratings
+    private static final Comparator<Entry> RANKING = Comparator
+            .comparingDouble((Entry entry) -> entry.product().getRating()).reversed()
+            .thenComparing(Entry::productId)
+            .thenComparingLong(Entry::version);
+
+    private final ConcurrentMap<String, ConcurrentSkipListSet<Entry>> rankingsByCategory = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Entry> currentById = new ConcurrentHashMap<>();
+    private long nextVersion;                // entry versions, only touched by the writer
+    private volatile long writeSequence;     // odd while a write is in progress (seqlock)
+
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+
+    /**
+     * Adds a product, or replaces the product currently stored under the id
+     * (e.g. with a new rating or in another category).
+     *
+     * @param productId Unique id of the product
+     * @param product The product's current state
+     */
+    public synchronized void upsert(String productId, Product product) {
+        writeSequence++;  // odd: write in progress
+        Entry updated = new Entry(productId, product, nextVersion++);
+        rankingsByCategory.computeIfAbsent(product.getCategory(), category -> new ConcurrentSkipListSet<>(RANKING))
+                .add(updated);
+        Entry previous = currentById.put(productId, updated);
+        if (previous != null) {
+            rankingsByCategory.get(previous.product().getCategory()).remove(previous);
+        }
+        writeSequence++;  // even: done
+    }
+
+    /**
+     * Removes a product.
+     *
+     * @param productId Id of the product to remove
+     * @return true if the product was present
+     */
+    public synchronized boolean remove(String productId) {
+        Entry previous = currentById.get(productId);
+        if (previous == null) {
+            return false;
+        }
+        writeSequence++;
+        currentById.remove(productId);
+        rankingsByCategory.get(previous.product().getCategory()).remove(previous);
+        writeSequence++;
+        return true;
+    }
+
+    /**
+     * @return The product currently stored under the id, or null
+     */
+    public Product get(String productId) {
+        Entry entry = currentById.get(productId);
+        return entry == null ? null : entry.product();
+    }
+
+    /**
+     * @return Number of products in the leaderboard
+     */
+    public int size() {
+        return currentById.size();
+    }
+
+    /**
+     * Returns the N highest rated products of a category, highest first.
+     * Lock-free; walks only the head of the category's skip list.
+     *
+     * @param category Category name
+     * @param n Number of products to return
+     * @return Up to n products, sorted by rating (highest first), then by product id
+     */
+    public List<Product> topN(String category, int n) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long before = writeSequence;
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();  // a write is in progress
+                continue;
+            }
+            List<Product> result = readTopN(category, n);
+            if (writeSequence == before) {
+                return result;  // nothing changed while reading
+            }
+        }
+        synchronized (this) {
+            return readTopN(category, n);  // writer keeps interfering: read under its lock
+        }
+    }
+
+    private List<Product> readTopN(String category, int n) {
+        List<Product> result = new ArrayList<>(Math.min(n, 16));
+        ConcurrentSkipListSet<Entry> ranking = rankingsByCategory.get(category);
+        if (ranking == null) {
+            return result;
+        }
+        for (Entry entry : ranking) {
+            if (result.size() == n) {
+                break;
+            }
+            result.add(entry.product());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the N highest rated products of every category, same shape as
+     * {@link TopNProductsPerCategory#topNProductsPerCategory}.
+     */
+    public Map<String, List<Product>> topNPerCategory(int n) {
+        Map<String, List<Product>> result = new TreeMap<>();
+        for (String category : rankingsByCategory.keySet()) {
+            List<Product> top = topN(category, n);
+            if (!top.isEmpty()) {
+                result.put(category, top);
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) {
+        ProductLeaderboard leaderboard = new ProductLeaderboard();
+        leaderboard.upsert("E1", new Product("Electronics", 4.5));
+        leaderboard.upsert("E2", new Product("Electronics", 4.3));
+        leaderboard.upsert("E3", new Product("Electronics", 3.1));
+        leaderboard.upsert("E4", new Product("Electronics", 4.8));
+        leaderboard.upsert("B1", new Product("Books", 3.9));
+        leaderboard.upsert("B2", new Product("Books", 4.0));
+        leaderboard.upsert("B3", new Product("Books", 5.0));
+        System.out.println("Top 2 per category: " + leaderboard.topNPerCategory(2));
+
+        // Rating changes move a product without rebuilding anything
+        leaderboard.upsert("E3", new Product("Electronics", 4.9));  // E3 jumps to first place
+        leaderboard.remove("B3");                                    // B3 leaves the Books ranking
+        leaderboard.upsert("B1", new Product("Electronics", 4.6));  // B1 moves to another category
+        System.out.println("After updates:      " + leaderboard.topNPerCategory(2));
+
+        // Verification
+        List<Product> electronics = leaderboard.topN("Electronics", 3);
+        assert electronics.get(0).getRating() == 4.9;   // E3
+        assert electronics.get(1).getRating() == 4.8;   // E4
+        assert electronics.get(2).getRating() == 4.6;   // B1
+        List<Product> books = leaderboard.topN("Books", 2);
+        assert books.size() == 1 && books.get(0).getRating() == 4.0;  // only B2 left
+        assert leaderboard.size() == 6;
+        assert leaderboard.topN("Toys", 2).isEmpty();
+
+        // Concurrent reader while one writer keeps changing ratings: a product is never seen twice or missed
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                leaderboard.upsert("E1", new Product("Electronics", (i % 50) / 10.0));
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            List<Product> top = leaderboard.topN("Electronics", 10);
+            assert top.size() == 5 : "Expected each of the 5 electronics products exactly once: " + top;
+        }
+        System.out.println("\nTest Passed! ✅");
+    }
+}
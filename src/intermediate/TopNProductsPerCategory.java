@@ -1,8 +1,11 @@
 package intermediate;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
 @SuppressWarnings("all")
@@ -10,8 +13,7 @@ public class TopNProductsPerCategory {
     // Problem 4: Top N Products Per Category
     /**
      * Represents a product with a category and rating.
-     * Note: Products with equal ratings will be ordered non-deterministically
-     * as we only sort by rating.
+     * Note: Products with equal ratings are ordered by their position in the input list.
      */
     public static class Product {
         String category;
@@ -33,9 +35,10 @@ public class TopNProductsPerCategory {
 
     /**
      * Finds the top N products with highest ratings for each category.
-     * Note: When multiple products have the same rating, their order is non-deterministic
-     * as we only sort by rating. For consistent ordering with equal ratings,
-     * consider adding a secondary sort criteria.
+     * Uses the bounded {@link #topN(int, Comparator)} downstream, so each category only ever keeps
+     * N products: O(n log N) time and O(categories * N) memory instead of grouping every product first.
+     * Products with equal ratings keep their encounter order (the earlier product ranks higher),
+     * which is the same order a stable sort of the full list would give, also on parallel streams.
      * 
      * @param products List of products to analyze
      * @param n Number of top products to return per category
@@ -45,31 +48,97 @@ public class TopNProductsPerCategory {
      */
     public static Map<String, List<Product>> topNProductsPerCategory(List<Product> products, int n) {
         return products.stream().collect(
-                // First, group all products by their category
-                Collectors.collectingAndThen(
-                        Collectors.groupingBy(
-                                Product::getCategory,
-                                Collectors.toList()
-                        ),
-                        // Then, transform each category's product list to get top N by rating
-                        groupedMap -> groupedMap.entrySet().stream()
-                                .collect(Collectors.toMap(
-                                        // Keep the same category as the key
-                                        Map.Entry::getKey,
-                                        // For each category's products:
-                                        entry ->
-                                                entry.getValue().stream()
-                                                        // Sort by rating in descending order
-                                                        .sorted(Comparator.comparing(Product::getRating).reversed())
-                                                        // Take only the top N products
-                                                        .limit(n)
-                                                        // Collect into a list
-                                                        .collect(Collectors.toList())
-                                ))
+                Collectors.groupingBy(
+                        Product::getCategory,
+                        // Keep only the N best products of each category while streaming
+                        topN(n, Comparator.comparing(Product::getRating).reversed())
                 )
         );
     }
 
+    /**
+     * Creates a downstream collector that keeps the first N elements in comparator order.
+     * <a/>
+     * Each container is a heap of at most N elements with the worst kept element on top,
+     * so an element that does not beat it is rejected with one comparison and without allocating.
+     * Ties are broken by encounter order: every element gets a sequence number within its container,
+     * and the combiner offsets the right container's numbers past the left one's, so equal elements
+     * come out in the same order as in the source, sequential or parallel.
+     *
+     * @param <T> The type of elements
+     * @param n Maximum number of elements to keep
+     * @param comparator Order of the result (best first)
+     * @return A collector that produces the top N elements, best first
+     */
+    public static <T> Collector<T, ?, List<T>> topN(int n, Comparator<? super T> comparator) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative: " + n);
+        }
+        return Collector.of(
+                () -> new TopN<T>(n, comparator),  // Supplier: empty bounded heap
+                TopN::offer,                       // Accumulator: keeps the element if it is in the top N so far
+                TopN::merge,                       // Combiner: offers the right heap's elements to the left one
+                TopN::toList                       // Finisher: drains the heap best first
+        );
+    }
+
+    /**
+     * Bounded heap used by {@link #topN}. The head of the queue is the worst element kept.
+     */
+    private static class TopN<T> {
+        private record Ranked<T>(T element, long sequence) {}
+
+        private final int n;
+        private final Comparator<? super T> comparator;
+        private final Comparator<Ranked<T>> order;  // best first: comparator, then earlier sequence
+        private final PriorityQueue<Ranked<T>> heap;
+        private long seen;                           // sequence number of the next element
+
+        TopN(int n, Comparator<? super T> comparator) {
+            this.n = n;
+            this.comparator = comparator;
+            this.order = Comparator.<Ranked<T>, T>comparing(Ranked::element, comparator)
+                    .thenComparingLong(Ranked::sequence);
+            this.heap = new PriorityQueue<>(Math.max(1, n), order.reversed());
+        }
+
+        void offer(T element) {
+            offer(element, seen++);
+        }
+
+        private void offer(T element, long sequence) {
+            if (heap.size() < n) {
+                heap.add(new Ranked<>(element, sequence));
+            } else if (n > 0 && isBetter(element, sequence, heap.peek())) {
+                heap.poll();
+                heap.add(new Ranked<>(element, sequence));
+            }
+        }
+
+        private boolean isBetter(T element, long sequence, Ranked<T> worst) {
+            int byComparator = comparator.compare(element, worst.element());
+            return byComparator < 0 || (byComparator == 0 && sequence < worst.sequence());
+        }
+
+        TopN<T> merge(TopN<T> right) {
+            for (Ranked<T> ranked : right.heap) {
+                offer(ranked.element(), seen + ranked.sequence());  // right elements come after all left ones
+            }
+            seen += right.seen;
+            return this;
+        }
+
+        List<T> toList() {
+            List<Ranked<T>> ranked = new ArrayList<>(heap);
+            ranked.sort(order);
+            List<T> result = new ArrayList<>(ranked.size());
+            for (Ranked<T> r : ranked) {
+                result.add(r.element());
+            }
+            return result;
+        }
+    }
+
     public static void main(String[] args) {
         // Problem 4: Test data with various products and ratings
         List<Product> products = List.of(
@@ -84,7 +153,26 @@ public class TopNProductsPerCategory {
                 new Product("Books", 4.2)         // Will be included in top 2 for Books
         );
         // Expected output will show top 2 products per category, sorted by rating
-        // Note: For equal ratings, the order is non-deterministic
-        System.out.println("Problem 4: " + topNProductsPerCategory(products, 2));
+        // Note: For equal ratings, the product that comes first in the list ranks higher
+        Map<String, List<Product>> topProducts = topNProductsPerCategory(products, 2);
+        System.out.println("Problem 4: " + topProducts);
+
+        // Verification: same result as sorting each full category list, sequential or parallel
+        Map<String, List<Product>> sortedTopProducts = products.stream().collect(Collectors.groupingBy(
+                Product::getCategory,
+                Collectors.collectingAndThen(Collectors.toList(), list -> list.stream()
+                        .sorted(Comparator.comparing(Product::getRating).reversed())
+                        .limit(2)
+                        .collect(Collectors.toList()))
+        ));
+        assert topProducts.equals(sortedTopProducts);
+        assert products.parallelStream()
+                .collect(Collectors.groupingBy(Product::getCategory, topN(2, Comparator.comparing(Product::getRating).reversed())))
+                .equals(topProducts);
+
+        // Ties keep encounter order: the first two of three equal ratings win
+        List<Product> tied = List.of(new Product("Toys", 4.0), new Product("Toys", 4.0), new Product("Toys", 4.0));
+        List<Product> topTied = tied.parallelStream().collect(topN(2, Comparator.comparing(Product::getRating).reversed()));
+        assert topTied.get(0) == tied.get(0) && topTied.get(1) == tied.get(1);
     }
 }
@@ -0,0 +1,48 @@
+package intermediate;
+
+import beginner.RecordFile;
+import intermediate.MostRecentTransactionByMonth.Transaction;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+
+/**
+ * {@link RecordFile} layout of a {@link Transaction}, 16 bytes per record:
+ * - offset 0: date as int epoch day
+ * - offset 4: id as dictionary code
+ * - offset 8: amount as double
+ */
+public class TransactionRecordFormat implements RecordFile.Format<Transaction> {
+    public static final TransactionRecordFormat INSTANCE = new TransactionRecordFormat();
+
+    public static final int EPOCH_DAY = 0;
+    public static final int ID = 4;
+    public static final int AMOUNT = 8;
+
+    private TransactionRecordFormat() {}
+
+    @Override
+    public int typeId() {
+        return 1;
+    }
+
+    @Override
+    public int width() {
+        return 16;
+    }
+
+    @Override
+    public void write(Transaction transaction, ByteBuffer out, RecordFile.Strings strings) {
+        out.putInt(Math.toIntExact(transaction.getDate().toEpochDay()));
+        out.putInt(strings.encode(transaction.getId()));
+        out.putDouble(transaction.getAmount());
+    }
+
+    @Override
+    public Transaction read(RecordFile<Transaction> file, long index) {
+        return new Transaction(
+                LocalDate.ofEpochDay(file.getInt(index, EPOCH_DAY)),
+                file.getString(index, ID),
+                file.getDouble(index, AMOUNT));
+    }
+}
@@ -0,0 +1,206 @@
+package intermediate;
+
+import beginner.RecordFile;
+import intermediate.CalendarBucketAggregator.Granularity;
+import intermediate.CalendarBucketAggregator.Winner;
+import intermediate.MostRecentTransactionByMonth.Transaction;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Columnar (struct-of-arrays) store of transactions for fast scans.
+ * <a/>
+ * Instead of one heap object per transaction (Transaction -> LocalDate, String), every field is a column:
+ * - long[] epochDays: the date as days since 1970-01-01
+ * - double[] amounts
+ * - int[] ids: the id as an index into a dictionary of distinct id strings
+ * A scan reads three dense arrays front to back, with no pointer chasing and nothing for the GC to trace.
+ * <a/>
+ * The monthly queries of {@link MostRecentTransactionByMonth} run as plain loops over the columns:
+ * 1. The month of a row is computed from its epoch day with integer arithmetic (no LocalDate),
+ *    by {@link CalendarBucketAggregator.Granularity#bucketOfEpochDay}
+ * 2. The winner of each month is kept by a {@link CalendarBucketAggregator}, in primitive arrays indexed by month
+ * 3. Only the winning rows are turned back into Transaction objects at the end
+ * <a/>
+ * Not thread-safe for writes; reading a table that is no longer modified is safe from any thread.
+ */
+public class TransactionTable {
+    private long[] epochDays;
+    private double[] amounts;
+    private int[] ids;
+    private int size;
+
+    // Dictionary encoding of the id column
+    private String[] dictionary = new String[16];
+    private final Map<String, Integer> codes = new HashMap<>();
+
+    public TransactionTable() {
+        this(16);
+    }
+
+    public TransactionTable(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        epochDays = new long[capacity];
+        amounts = new double[capacity];
+        ids = new int[capacity];
+    }
+
+    /**
+     * Bulk loads a list of transactions into a new table, in list order.
+     */
+    public static TransactionTable of(List<Transaction> transactions) {
+        TransactionTable table = new TransactionTable(transactions.size());
+        table.addAll(transactions);
+        return table;
+    }
+
+    /**
+     * Bulk loads a binary transaction file (see {@link TransactionRecordFormat}) into a new table,
+     * copying the columns without creating a Transaction per record.
+     */
+    public static TransactionTable of(RecordFile<Transaction> file) {
+        TransactionTable table = new TransactionTable(Math.toIntExact(file.size()));
+        table.addAll(file);
+        return table;
+    }
+
+    public void addAll(RecordFile<Transaction> file) {
+        ensureCapacity(Math.toIntExact(size + file.size()));
+        // The file's id codes are translated to this table's codes once per distinct id, not per row
+        int[] codeOf = new int[file.dictionarySize()];
+        for (int code = 0; code < codeOf.length; code++) {
+            codeOf[code] = encode(file.string(code));
+        }
+        for (long index = 0; index < file.size(); index++) {
+            int code = file.getInt(index, TransactionRecordFormat.ID);
+            add(file.getInt(index, TransactionRecordFormat.EPOCH_DAY),
+                    code < 0 ? encode(null) : codeOf[code],
+                    file.getDouble(index, TransactionRecordFormat.AMOUNT));
+        }
+    }
+
+    public void addAll(List<Transaction> transactions) {
+        ensureCapacity(size + transactions.size());
+        for (Transaction transaction : transactions) {
+            add(transaction.getDate(), transaction.getId(), transaction.getAmount());
+        }
+    }
+
+    public void add(Transaction transaction) {
+        add(transaction.getDate(), transaction.getId(), transaction.getAmount());
+    }
+
+    public void add(LocalDate date, String id, double amount) {
+        add(date.toEpochDay(), encode(id), amount);
+    }
+
+    /**
+     * Appends a row from already encoded columns.
+     *
+     * @param epochDay Date as days since 1970-01-01
+     * @param idCode Dictionary code of the id, see {@link #encode}
+     * @param amount Amount of the transaction
+     */
+    public void add(long epochDay, int idCode, double amount) {
+        if (idCode < 0 || idCode >= codes.size()) {
+            throw new IllegalArgumentException("Unknown id code: " + idCode);
+        }
+        ensureCapacity(size + 1);
+        epochDays[size] = epochDay;
+        amounts[size] = amount;
+        ids[size] = idCode;
+        size++;
+    }
+
+    /**
+     * @return The dictionary code of an id, adding the id to the dictionary if it is new
+     */
+    public int encode(String id) {
+        Integer code = codes.get(id);
+        if (code == null) {
+            code = codes.size();
+            if (code == dictionary.length) {
+                dictionary = Arrays.copyOf(dictionary, code * 2);
+            }
+            dictionary[code] = id;
+            codes.put(id, code);
+        }
+        return code;
+    }
+
+    public int size() { return size; }
+    public long getEpochDay(int row) { return epochDays[row]; }
+    public double getAmount(int row) { return amounts[row]; }
+    public String getId(int row) { return dictionary[ids[row]]; }
+
+    /**
+     * @return Number of distinct ids in the dictionary
+     */
+    public int distinctIds() {
+        return codes.size();
+    }
+
+    /**
+     * Materializes one row as a new Transaction.
+     */
+    public Transaction row(int row) {
+        return new Transaction(LocalDate.ofEpochDay(epochDays[row]), getId(row), amounts[row]);
+    }
+
+    /**
+     * Same as {@link MostRecentTransactionByMonth#mostRecentTransactionByMonth}:
+     * the latest transaction of each month, the first one in table order if several share the latest date.
+     */
+    public Map<YearMonth, Transaction> mostRecentTransactionByMonth() {
+        return winnerByMonth(Winner.MOST_RECENT, false);
+    }
+
+    /**
+     * Same as {@link MostRecentTransactionByMonth#mostRecentTransactionByMonth2}:
+     * like mostRecentTransactionByMonth, but the last one in table order wins a tie on the date
+     * (the toMap merge function keeps the replacement unless the existing one is strictly more recent).
+     */
+    public Map<YearMonth, Transaction> mostRecentTransactionByMonth2() {
+        return winnerByMonth(Winner.MOST_RECENT, true);
+    }
+
+    /**
+     * Same as {@link MostRecentTransactionByMonth#highestAmountTransactionByMonth}:
+     * the highest amount of each month, then the latest date, then the first one in table order.
+     */
+    public Map<YearMonth, Transaction> highestAmountTransactionByMonth() {
+        return winnerByMonth(Winner.HIGHEST_AMOUNT, false);
+    }
+
+    /**
+     * Scans the columns into a month aggregator, then materializes only the winning rows.
+     *
+     * @param lastWinsTie Whether the last row in table order wins a tie, instead of the first one
+     */
+    private Map<YearMonth, Transaction> winnerByMonth(Winner winner, boolean lastWinsTie) {
+        CalendarBucketAggregator aggregator = new CalendarBucketAggregator(Granularity.MONTH, winner);
+        for (int row = 0; row < size; row++) {
+            long epochDay = epochDays[row];
+            // The aggregator gives a tie to the lower row number, so rows are numbered backwards for the last to win
+            aggregator.offer(Granularity.MONTH.bucketOfEpochDay(epochDay), epochDay, amounts[row],
+                    lastWinsTie ? size - 1 - row : row);
+        }
+        IntFunction<Transaction> rowOf = lastWinsTie ? number -> row(size - 1 - number) : this::row;
+        return new HashMap<>(aggregator.asYearMonthMap(rowOf));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > epochDays.length) {
+            int newCapacity = Math.max(capacity, epochDays.length * 2);
+            epochDays = Arrays.copyOf(epochDays, newCapacity);
+            amounts = Arrays.copyOf(amounts, newCapacity);
+            ids = Arrays.copyOf(ids, newCapacity);
+        }
+    }
+}
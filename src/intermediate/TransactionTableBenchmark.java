@@ -0,0 +1,147 @@
+package intermediate;
+
+import beginner.RecordFile;
+import intermediate.MostRecentTransactionByMonth.Transaction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the stream versions of the monthly queries in {@link MostRecentTransactionByMonth}
+ * with the column scans of {@link TransactionTable} on the same generated data.
+ * <a/>
+ * Usage: java -ea intermediate.TransactionTableBenchmark [rows] [rounds]
+ * (defaults: 2,000,000 rows of a year of card transactions, 5 measured rounds after 3 warm-up rounds).
+ * Run with a heap large enough for the object version, e.g. -Xmx2g for the defaults.
+ * <a/>
+ * Each query is checked against its stream version before it is timed, so a faster but wrong scan is not reported.
+ * This is a plain System.nanoTime harness: good enough to see the gap between the two layouts,
+ * not a replacement for a JMH run.
+ */
+public class TransactionTableBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<Transaction> transactions = generate(rows, 42);
+        long loadStart = System.nanoTime();
+        TransactionTable table = TransactionTable.of(transactions);
+        System.out.printf("Loaded %,d rows (%,d distinct ids) into columns in %.1f ms%n",
+                table.size(), table.distinctIds(), (System.nanoTime() - loadStart) / 1e6);
+
+        // Cold start: the same rows from a binary record file, mapped and copied into columns
+        Path file = Files.createTempFile("transactions", ".rec");
+        try {
+            long writeStart = System.nanoTime();
+            RecordFile.write(file, TransactionRecordFormat.INSTANCE, transactions);
+            System.out.printf("Wrote %,d bytes of records in %.1f ms%n", Files.size(file), (System.nanoTime() - writeStart) / 1e6);
+            long openStart = System.nanoTime();
+            try (RecordFile<Transaction> records = RecordFile.open(file, TransactionRecordFormat.INSTANCE)) {
+                TransactionTable fromFile = TransactionTable.of(records);
+                System.out.printf("Loaded %,d rows from the record file into columns in %.1f ms%n",
+                        fromFile.size(), (System.nanoTime() - openStart) / 1e6);
+                assert sameWinners(fromFile.highestAmountTransactionByMonth(), table.highestAmountTransactionByMonth());
+                assert records.doubles(TransactionRecordFormat.AMOUNT).sum()
+                        == transactions.stream().mapToDouble(Transaction::getAmount).sum();
+                assert records.stream().parallel().filter(t -> t.getId().equals("CARD-7")).count()
+                        == transactions.stream().filter(t -> t.getId().equals("CARD-7")).count();
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        // Same answers first
+        assert sameWinners(table.mostRecentTransactionByMonth(),
+                MostRecentTransactionByMonth.mostRecentTransactionByMonth(transactions));
+        assert sameWinners(table.mostRecentTransactionByMonth2(),
+                MostRecentTransactionByMonth.mostRecentTransactionByMonth2(transactions));
+        assert sameWinners(table.highestAmountTransactionByMonth(),
+                MostRecentTransactionByMonth.highestAmountTransactionByMonth(transactions));
+
+        compare("mostRecentTransactionByMonth", rounds,
+                () -> MostRecentTransactionByMonth.mostRecentTransactionByMonth(transactions),
+                table::mostRecentTransactionByMonth);
+        compare("mostRecentTransactionByMonth2", rounds,
+                () -> MostRecentTransactionByMonth.mostRecentTransactionByMonth2(transactions),
+                table::mostRecentTransactionByMonth2);
+        compare("highestAmountTransactionByMonth", rounds,
+                () -> MostRecentTransactionByMonth.highestAmountTransactionByMonth(transactions),
+                table::highestAmountTransactionByMonth);
+    }
+
+    /**
+     * A year of transactions over a few thousand card ids, with repeated dates and amounts so ties happen.
+     */
+    static List<Transaction> generate(int rows, long seed) {
+        Random random = new Random(seed);
+        LocalDate start = LocalDate.of(2023, 1, 1);
+        List<Transaction> transactions = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            transactions.add(new Transaction(
+                    start.plusDays(random.nextInt(365)),
+                    "CARD-" + random.nextInt(5_000),
+                    random.nextInt(100_000) / 100.0));
+        }
+        return transactions;
+    }
+
+    /**
+     * The table returns new Transaction objects, so winners are compared by their fields.
+     */
+    static boolean sameWinners(Map<YearMonth, Transaction> actual, Map<YearMonth, Transaction> expected) {
+        if (!actual.keySet().equals(expected.keySet())) {
+            return false;
+        }
+        for (Map.Entry<YearMonth, Transaction> entry : expected.entrySet()) {
+            Transaction a = actual.get(entry.getKey());
+            Transaction e = entry.getValue();
+            if (!a.getDate().equals(e.getDate()) || !a.getId().equals(e.getId()) || a.getAmount() != e.getAmount()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void compare(String query, int rounds, Supplier<Map<YearMonth, Transaction>> streams,
+                                Supplier<Map<YearMonth, Transaction>> columns) {
+        Timing streamTiming = time(streams, rounds);
+        Timing columnTiming = time(columns, rounds);
+        // Both sides ran as often and return a map with the same months, so their result sizes add up the same
+        assert streamTiming.resultSizes() == columnTiming.resultSizes() : query;
+        System.out.printf("%-32s streams: %8.2f ms   columns: %8.2f ms   speedup: %5.1fx%n",
+                query, streamTiming.bestMillis(), columnTiming.bestMillis(),
+                streamTiming.bestMillis() / columnTiming.bestMillis());
+    }
+
+    /**
+     * @param bestMillis Best time in milliseconds over the measured rounds
+     * @param resultSizes Sum of the result sizes of every run, so no run's result is unused
+     */
+    private record Timing(double bestMillis, long resultSizes) {}
+
+    /**
+     * Times the query over the measured rounds, after warm-up rounds.
+     */
+    private static Timing time(Supplier<Map<YearMonth, Transaction>> query, int rounds) {
+        long resultSizes = 0;
+        for (int i = 0; i < 3; i++) {
+            resultSizes += query.get().size();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            resultSizes += query.get().size();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return new Timing(best / 1e6, resultSizes);
+    }
+}
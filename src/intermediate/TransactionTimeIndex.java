@@ -0,0 +1,345 @@
+package intermediate;
+
+import intermediate.CalendarBucketAggregator.Granularity;
+import intermediate.MostRecentTransactionByMonth.Transaction;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Index of transactions sorted by date, for range questions such as "latest transaction in Q3"
+ * or "highest amount between two dates" without rescanning every transaction.
+ * <a/>
+ * Transactions are kept in one segment per month, the segments sorted by month, and each segment
+ * sorted by date (transactions of the same date in the order they were added). Each segment keeps a summary:
+ * - its latest date, which is simply its last entry
+ * - the position of its highest amount (ties: latest date, then added first)
+ * <a/>
+ * A range query:
+ * 1. Binary searches the first and last segment that overlap the range
+ * 2. Binary searches the date bounds inside the two edge segments and scans only the part inside the range
+ * 3. Answers the segments in between from their summaries, skipping those whose highest amount
+ *    cannot beat the best one found so far
+ * So a query costs O(log n + size of the edge segments + number of months), instead of O(n).
+ * <a/>
+ * Adding a transaction updates its segment and summary in place: appending new days (the usual case)
+ * is an append at the end of the last segment, and an out-of-order date is inserted at its sorted position.
+ * Nothing is ever rebuilt.
+ * <a/>
+ * Query results follow the same tie rules as {@link MostRecentTransactionByMonth}: among transactions of the
+ * same latest date the one added first wins, like Collectors.maxBy on a sequential stream.
+ * Not thread-safe.
+ */
+public class TransactionTimeIndex {
+
+    /**
+     * The transactions of one month, sorted by date.
+     */
+    private static final class Segment {
+        final int month;                            // epoch month, Granularity.MONTH bucket
+        long[] epochDays = new long[8];
+        double[] amounts = new double[8];
+        Transaction[] transactions = new Transaction[8];
+        int size;
+        int maxAmountPosition = -1;                 // summary: position of the highest amount
+
+        Segment(int month) {
+            this.month = month;
+        }
+
+        void add(Transaction transaction) {
+            long epochDay = transaction.getDate().toEpochDay();
+            // After every transaction of the same date, so equal dates stay in the order they were added
+            int position = size > 0 && epochDays[size - 1] <= epochDay ? size : upperBound(epochDay);
+            if (size == epochDays.length) {
+                epochDays = Arrays.copyOf(epochDays, size * 2);
+                amounts = Arrays.copyOf(amounts, size * 2);
+                transactions = Arrays.copyOf(transactions, size * 2);
+            }
+            int moved = size - position;
+            System.arraycopy(epochDays, position, epochDays, position + 1, moved);
+            System.arraycopy(amounts, position, amounts, position + 1, moved);
+            System.arraycopy(transactions, position, transactions, position + 1, moved);
+            epochDays[position] = epochDay;
+            amounts[position] = transaction.getAmount();
+            transactions[position] = transaction;
+            size++;
+
+            if (maxAmountPosition >= position) {
+                maxAmountPosition++;
+            }
+            if (maxAmountPosition < 0 || beats(position, maxAmountPosition)) {
+                maxAmountPosition = position;
+            }
+        }
+
+        /**
+         * @return true if the transaction at position a has a higher amount than the one at b,
+         *         or the same amount and a later date
+         */
+        boolean beats(int a, int b) {
+            int byAmount = Double.compare(amounts[a], amounts[b]);
+            return byAmount > 0 || (byAmount == 0 && epochDays[a] > epochDays[b]);
+        }
+
+        /**
+         * @return First position whose date is >= epochDay
+         */
+        int lowerBound(long epochDay) {
+            int low = 0, high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (epochDays[middle] < epochDay) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return First position whose date is > epochDay
+         */
+        int upperBound(long epochDay) {
+            int low = 0, high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (epochDays[middle] <= epochDay) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private Segment[] segments = new Segment[16];
+    private int segmentCount;
+    private long size;
+
+    /**
+     * Builds an index over the given transactions, in list order.
+     */
+    public static TransactionTimeIndex of(List<Transaction> transactions) {
+        TransactionTimeIndex index = new TransactionTimeIndex();
+        transactions.forEach(index::add);
+        return index;
+    }
+
+    /**
+     * Adds one transaction. Appending in date order is O(1); an older date is inserted in its month.
+     */
+    public void add(Transaction transaction) {
+        LocalDate date = transaction.getDate();
+        int month = monthOf(date);
+        Segment segment;
+        if (segmentCount > 0 && segments[segmentCount - 1].month == month) {
+            segment = segments[segmentCount - 1];  // the usual case: the current month
+        } else {
+            int found = findSegment(month);
+            if (found >= 0) {
+                segment = segments[found];
+            } else {
+                segment = new Segment(month);
+                insertSegment(-found - 1, segment);
+            }
+        }
+        segment.add(transaction);
+        size++;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Finds the most recent transaction between two dates, both inclusive.
+     * If several share the latest date, the one added first is returned.
+     */
+    public Optional<Transaction> latest(LocalDate from, LocalDate to) {
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        if (fromDay > toDay) {
+            return Optional.empty();
+        }
+        // The latest date <= to is in the last segment that starts before the end of the range
+        for (int s = lastSegmentAtOrBefore(monthOf(to)); s >= 0; s--) {
+            Segment segment = segments[s];
+            int end = segment.upperBound(toDay);
+            if (end == 0) {
+                continue;  // every transaction of this month is after the range; try the month before
+            }
+            long latestDay = segment.epochDays[end - 1];
+            if (latestDay < fromDay) {
+                return Optional.empty();
+            }
+            return Optional.of(segment.transactions[segment.lowerBound(latestDay)]);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Finds the transaction with the highest amount between two dates, both inclusive.
+     * Ties go to the most recent one, then to the one added first.
+     */
+    public Optional<Transaction> highestAmount(LocalDate from, LocalDate to) {
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        if (fromDay > toDay) {
+            return Optional.empty();
+        }
+        int first = firstSegmentAtOrAfter(monthOf(from));
+        int last = lastSegmentAtOrBefore(monthOf(to));
+
+        Segment bestSegment = null;
+        int bestPosition = -1;
+        // Segments in reverse month order: a later month wins every tie on the amount,
+        // so an earlier month only has to be looked at if it can beat the amount found so far
+        for (int s = last; s >= first; s--) {
+            Segment segment = segments[s];
+            if (bestSegment != null
+                    && Double.compare(segment.amounts[segment.maxAmountPosition], bestSegment.amounts[bestPosition]) <= 0) {
+                continue;  // summary: nothing in this month can beat the best
+            }
+            int begin = segment.lowerBound(fromDay);
+            int end = segment.upperBound(toDay);
+            int candidate;
+            if (begin == 0 && end == segment.size) {
+                candidate = segment.maxAmountPosition;  // whole month inside the range
+            } else if (begin < end) {
+                candidate = begin;                      // edge month: scan the part inside the range
+                for (int i = begin + 1; i < end; i++) {
+                    if (segment.beats(i, candidate)) {
+                        candidate = i;
+                    }
+                }
+            } else {
+                continue;
+            }
+            if (bestSegment == null
+                    || Double.compare(segment.amounts[candidate], bestSegment.amounts[bestPosition]) > 0) {
+                bestSegment = segment;
+                bestPosition = candidate;
+            }
+        }
+        return bestSegment == null ? Optional.empty() : Optional.of(bestSegment.transactions[bestPosition]);
+    }
+
+    /**
+     * @return The transactions between two dates (both inclusive), sorted by date
+     */
+    public List<Transaction> between(LocalDate from, LocalDate to) {
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        List<Transaction> result = new ArrayList<>();
+        if (fromDay > toDay) {
+            return result;
+        }
+        int last = lastSegmentAtOrBefore(monthOf(to));
+        for (int s = firstSegmentAtOrAfter(monthOf(from)); s <= last; s++) {
+            Segment segment = segments[s];
+            int end = segment.upperBound(toDay);
+            for (int i = segment.lowerBound(fromDay); i < end; i++) {
+                result.add(segment.transactions[i]);
+            }
+        }
+        return result;
+    }
+
+    private static int monthOf(LocalDate date) {
+        return Granularity.MONTH.bucketOf(date);
+    }
+
+    /**
+     * @return The index of the month's segment, or -(insertion point) - 1 if there is none
+     */
+    private int findSegment(int month) {
+        int low = 0, high = segmentCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int midMonth = segments[middle].month;
+            if (midMonth < month) {
+                low = middle + 1;
+            } else if (midMonth > month) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int firstSegmentAtOrAfter(int month) {
+        int found = findSegment(month);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    private int lastSegmentAtOrBefore(int month) {
+        int found = findSegment(month);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    private void insertSegment(int position, Segment segment) {
+        if (segmentCount == segments.length) {
+            segments = Arrays.copyOf(segments, segmentCount * 2);
+        }
+        System.arraycopy(segments, position, segments, position + 1, segmentCount - position);
+        segments[position] = segment;
+        segmentCount++;
+    }
+
+    public static void main(String[] args) {
+        TransactionTimeIndex index = new TransactionTimeIndex();
+        index.add(new Transaction(LocalDate.of(2023, 7, 3), "T1", 120));
+        index.add(new Transaction(LocalDate.of(2023, 8, 14), "T2", 900));
+        index.add(new Transaction(LocalDate.of(2023, 9, 30), "T3", 40));
+        index.add(new Transaction(LocalDate.of(2023, 10, 2), "T4", 1000));
+        index.add(new Transaction(LocalDate.of(2023, 9, 30), "T5", 75));   // same day as T3, added later
+        index.add(new Transaction(LocalDate.of(2023, 6, 1), "T6", 900));   // out of order: an older month
+
+        LocalDate q3Start = LocalDate.of(2023, 7, 1);
+        LocalDate q3End = LocalDate.of(2023, 9, 30);
+        System.out.println("Latest in Q3:          " + index.latest(q3Start, q3End));
+        System.out.println("Highest amount in Q3:  " + index.highestAmount(q3Start, q3End));
+        System.out.println("June to August:        " + index.between(LocalDate.of(2023, 6, 1), LocalDate.of(2023, 8, 31)));
+
+        // Verification
+        assert index.latest(q3Start, q3End).get().getId().equals("T3");                      // first added of 09-30
+        assert index.highestAmount(q3Start, q3End).get().getId().equals("T2");
+        assert index.highestAmount(LocalDate.of(2023, 6, 1), LocalDate.of(2023, 8, 31)).get().getId().equals("T2");  // tie: later date
+        assert index.latest(LocalDate.of(2023, 11, 1), LocalDate.of(2023, 12, 31)).isEmpty();
+        assert index.between(q3Start, q3End).size() == 4;
+
+        // Random ranges against a full scan with the same comparators as MostRecentTransactionByMonth
+        Random random = new Random(7);
+        List<Transaction> transactions = new ArrayList<>();
+        TransactionTimeIndex randomIndex = new TransactionTimeIndex();
+        LocalDate start = LocalDate.of(2022, 1, 1);
+        for (int i = 0; i < 20_000; i++) {
+            // mostly in date order, sometimes a late arrival
+            int day = random.nextInt(10) == 0 ? random.nextInt(730) : Math.min(729, i / 27 + random.nextInt(3));
+            Transaction transaction = new Transaction(start.plusDays(day), "R" + i, random.nextInt(500));
+            transactions.add(transaction);
+            randomIndex.add(transaction);
+        }
+        for (int i = 0; i < 2_000; i++) {
+            LocalDate from = start.plusDays(random.nextInt(760) - 15);
+            LocalDate to = from.plusDays(random.nextInt(200));
+            List<Transaction> inRange = transactions.stream()
+                    .filter(t -> !t.getDate().isBefore(from) && !t.getDate().isAfter(to))
+                    .toList();
+            assert randomIndex.latest(from, to).equals(inRange.stream().max(Comparator.comparing(Transaction::getDate)));
+            assert randomIndex.highestAmount(from, to).equals(inRange.stream().max(
+                    Comparator.comparing(Transaction::getAmount).thenComparing(Transaction::getDate)));
+            assert randomIndex.between(from, to).size() == inRange.size();
+        }
+        System.out.println("\nTest Passed! ✅");
+    }
+}